@@ -0,0 +1,52 @@
+package com.itechart.cityservice.graph;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of resolving city names to their ids, which every search and every applied change pays.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CityInterningBenchmark {
+    private static final int LOOKUPS = 1024;
+
+    @Param({"100", "10000", "100000"})
+    public int cities;
+
+    private GraphSnapshot graph;
+    private String[] names;
+    private int lookup;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        graph = SyntheticGraph.SPARSE.build(cities);
+
+        // new String instances, so hash codes are not cached in them like in names of requests
+        Random random = new Random(7L);
+        names = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            names[i] = new String(SyntheticGraph.name(random.nextInt(cities)).toCharArray());
+        }
+    }
+
+    @Benchmark
+    public int idOf() {
+        lookup = (lookup + 1) % LOOKUPS;
+        return graph.idOf(new String(names[lookup].toCharArray()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void internDistances(Blackhole blackhole) {
+        GraphSnapshot.Builder builder = GraphSnapshot.builder();
+        for (int i = 1; i < LOOKUPS; i++) {
+            builder.addDistance(names[i - 1], names[i], i);
+        }
+        blackhole.consume(builder);
+    }
+}
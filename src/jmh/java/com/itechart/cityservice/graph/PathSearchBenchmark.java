@@ -0,0 +1,84 @@
+package com.itechart.cityservice.graph;
+
+import com.itechart.cityservice.dto.PathResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Path searches between random pairs of cities of generated graphs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PathSearchBenchmark {
+    private static final int PAIRS = 1024;
+
+    @Param({"GRID", "SPARSE", "CLIQUE"})
+    public SyntheticGraph shape;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int cities;
+
+    private GraphSnapshot graph;
+    private ShortestPathSearch shortestPathSearch;
+    private ContractionHierarchySearch contractionHierarchySearch;
+    private int[] startCities;
+    private int[] destinationCities;
+    private int pair;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        graph = shape.build(cities);
+        shortestPathSearch = new ShortestPathSearch(graph);
+        contractionHierarchySearch = ContractionHierarchy.build(graph).search();
+
+        Random random = new Random(7L);
+        startCities = new int[PAIRS];
+        destinationCities = new int[PAIRS];
+        for (int i = 0; i < PAIRS; i++) {
+            startCities[i] = random.nextInt(graph.size());
+            destinationCities[i] = random.nextInt(graph.size());
+        }
+    }
+
+    @Benchmark
+    public PathResponse bidirectionalDijkstra() {
+        int i = nextPair();
+        return shortestPathSearch.bidirectional(startCities[i], destinationCities[i]);
+    }
+
+    @Benchmark
+    public PathResponse contractionHierarchy() {
+        int i = nextPair();
+        return contractionHierarchySearch.shortestPath(graph, startCities[i], destinationCities[i]);
+    }
+
+    @Benchmark
+    public List<PathResponse> topTenPaths() {
+        int i = nextPair();
+        KShortestPaths paths = new KShortestPaths(graph, startCities[i], destinationCities[i], null);
+        List<PathResponse> result = new ArrayList<>(10);
+        while (result.size() < 10 && paths.hasNext()) {
+            result.add(paths.next());
+        }
+        return result;
+    }
+
+    // the number of all paths is exponential, so the search is stopped by its budget on all but the smallest graphs
+    @Benchmark
+    public List<PathResponse> allPathsWithinBudget() {
+        int i = nextPair();
+        PathEnumeration enumeration = new PathEnumeration(graph, destinationCities[i], 1000, 100L);
+        return enumeration.findPaths(startCities[i], ForkJoinPool.commonPool());
+    }
+
+    private int nextPair() {
+        pair = (pair + 1) % PAIRS;
+        return pair;
+    }
+}
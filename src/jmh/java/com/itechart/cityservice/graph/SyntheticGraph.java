@@ -0,0 +1,81 @@
+package com.itechart.cityservice.graph;
+
+import java.util.Random;
+
+/**
+ * Shapes of generated graphs for benchmarks. Cities are named "city-0", "city-1", ... and distances are random,
+ * but the same seed always gives the same graph.
+ */
+public enum SyntheticGraph {
+    // every city is connected with its right and bottom neighbours, so paths are long and there are many of them
+    GRID {
+        @Override
+        void generate(int cities, Random random, DistanceConsumer consumer) {
+            int side = (int) Math.ceil(Math.sqrt(cities));
+            for (int city = 0; city < cities; city++) {
+                if ((city + 1) % side != 0 && city + 1 < cities) {
+                    consumer.accept(name(city), name(city + 1), distance(random));
+                }
+                if (city + side < cities) {
+                    consumer.accept(name(city), name(city + side), distance(random));
+                }
+            }
+        }
+    },
+    // random spanning tree plus two random distances per city, the average degree is about 6
+    SPARSE {
+        @Override
+        void generate(int cities, Random random, DistanceConsumer consumer) {
+            for (int city = 1; city < cities; city++) {
+                consumer.accept(name(city), name(random.nextInt(city)), distance(random));
+            }
+            for (int i = 0; i < 2 * cities; i++) {
+                int cityA = random.nextInt(cities);
+                int cityB = random.nextInt(cities);
+                if (cityA != cityB) {
+                    consumer.accept(name(cityA), name(cityB), distance(random));
+                }
+            }
+        }
+    },
+    // every pair of cities is connected. The number of distances grows quadratically,
+    // so only the first MAX_CLIQUE_CITIES cities are used
+    CLIQUE {
+        @Override
+        void generate(int cities, Random random, DistanceConsumer consumer) {
+            int size = Math.min(cities, MAX_CLIQUE_CITIES);
+            for (int cityA = 0; cityA < size; cityA++) {
+                for (int cityB = cityA + 1; cityB < size; cityB++) {
+                    consumer.accept(name(cityA), name(cityB), distance(random));
+                }
+            }
+        }
+    };
+
+    public static final int MAX_CLIQUE_CITIES = 1000;
+    private static final long SEED = 42L;
+
+    public interface DistanceConsumer {
+        void accept(String cityA, String cityB, long distance);
+    }
+
+    abstract void generate(int cities, Random random, DistanceConsumer consumer);
+
+    public void generate(int cities, DistanceConsumer consumer) {
+        generate(cities, new Random(SEED), consumer);
+    }
+
+    public GraphSnapshot build(int cities) {
+        GraphSnapshot.Builder builder = GraphSnapshot.builder();
+        generate(cities, builder::addDistance);
+        return builder.build(1L);
+    }
+
+    public static String name(int city) {
+        return "city-" + city;
+    }
+
+    private static long distance(Random random) {
+        return 1 + random.nextInt(100);
+    }
+}
@@ -0,0 +1,83 @@
+package com.itechart.cityservice.service;
+
+import com.itechart.cityservice.graph.GraphDelta;
+import com.itechart.cityservice.graph.GraphSnapshot;
+import com.itechart.cityservice.graph.SyntheticGraph;
+import com.itechart.cityservice.repo.CityCoordinatesView;
+import com.itechart.cityservice.repo.DistanceView;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full rebuild of the cached graph from streamed distances and an incremental update of it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GraphRebuildBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private List<DistanceView> distances;
+    private GraphSnapshot graph;
+    private GraphDelta delta;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // sparse graph has about 3 distances per city
+        distances = new ArrayList<>(rows);
+        SyntheticGraph.SPARSE.generate(rows / 3, (cityA, cityB, length) -> distances.add(new Row(cityA, cityB, length)));
+        graph = rebuild();
+
+        // a typical small change: new weights of existing distances and a few new cities
+        Random random = new Random(7L);
+        delta = new GraphDelta();
+        for (int i = 0; i < 100; i++) {
+            DistanceView distance = distances.get(random.nextInt(distances.size()));
+            delta.addDistance(distance.getFirstCity(), distance.getSecondCity(), 1 + random.nextInt(100));
+        }
+        for (int i = 0; i < 10; i++) {
+            delta.addDistance("new-city-" + i, distances.get(i).getFirstCity(), 1 + random.nextInt(100));
+        }
+    }
+
+    // rows are consumed one by one like the ones streamed from the database
+    @Benchmark
+    public GraphSnapshot rebuild() {
+        return CityServiceImpl.toGraph(distances.iterator(), Collections.<CityCoordinatesView>emptyIterator()).build(2L);
+    }
+
+    @Benchmark
+    public GraphSnapshot applyDelta() {
+        return graph.apply(delta);
+    }
+
+    private static class Row implements DistanceView {
+        private final String firstCity;
+        private final String secondCity;
+        private final Long distance;
+
+        Row(String firstCity, String secondCity, long distance) {
+            this.firstCity = firstCity;
+            this.secondCity = secondCity;
+            this.distance = distance;
+        }
+
+        @Override public String getFirstCity() {
+            return firstCity;
+        }
+
+        @Override public String getSecondCity() {
+            return secondCity;
+        }
+
+        @Override public Long getDistance() {
+            return distance;
+        }
+    }
+}
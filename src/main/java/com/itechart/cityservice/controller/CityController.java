@@ -1,44 +1,364 @@
 package com.itechart.cityservice.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itechart.cityservice.dto.CityCoordinatesDTO;
+import com.itechart.cityservice.dto.CityPairDTO;
 import com.itechart.cityservice.dto.DistanceDTO;
+import com.itechart.cityservice.dto.DistanceMatrix;
+import com.itechart.cityservice.dto.DistanceMatrixDTO;
+import com.itechart.cityservice.dto.DistanceMatrixRequestDTO;
+import com.itechart.cityservice.dto.DistanceProfileDTO;
+import com.itechart.cityservice.dto.IngestionBatchDTO;
+import com.itechart.cityservice.dto.PathBatchItemDTO;
+import com.itechart.cityservice.dto.PathBatchResult;
 import com.itechart.cityservice.dto.PathRequestDTO;
 import com.itechart.cityservice.dto.PathResponse;
+import com.itechart.cityservice.dto.PathSearchResult;
+import com.itechart.cityservice.dto.ReachabilityDTO;
+import com.itechart.cityservice.dto.ReachabilityResult;
+import com.itechart.cityservice.dto.ShortestPathAlgorithm;
+import com.itechart.cityservice.exception.OverloadedException;
+import com.itechart.cityservice.service.CityMetrics;
 import com.itechart.cityservice.service.CityService;
+import com.itechart.cityservice.service.ClientRateLimiter;
+import com.itechart.cityservice.service.ExecutionLanes;
+import com.itechart.cityservice.service.IngestionQueue;
+import com.itechart.cityservice.service.PathStream;
+import com.itechart.cityservice.service.QueryCostEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
+import javax.validation.Validator;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
+// Handlers of path queries run on the query lane and handlers which wait for the database run on the database lane,
+// see ExecutionLanes. Threads of the web server only accept requests and write responses.
+// Before a query is queued, its estimated cost is taken from the rate limit of the client, see ClientRateLimiter.
+// The cost is given back if the lane rejects the query
 @RestController
 @RequestMapping("/city")
 @Validated
 public class CityController {
-    private final CityService cityService;
+    // clients can compare versions of responses to find out if they were built from a stale graph
+    public static final String GRAPH_VERSION_HEADER = "X-Graph-Version";
+    // set if the search was stopped by its budget and only a part of paths is returned
+    public static final String TRUNCATED_HEADER = "X-Result-Truncated";
+    // set if the search of all paths was too expensive and only the shortest paths are returned
+    public static final String DOWNGRADED_HEADER = "X-Result-Downgraded";
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+    public static final int MAX_BATCH_PAIRS = 100000;
+    // limits of paths which are searched by one task of the query lane when they are streamed
+    private static final int STREAM_CHUNK_SIZE = 256;
+    private static final long STREAM_CHUNK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
 
+    private final CityService cityService;
+    private final IngestionQueue ingestionQueue;
+    private final ExecutionLanes lanes;
+    private final ClientRateLimiter rateLimiter;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final CityMetrics metrics;
+    // header which is set by a trusted proxy in front of the service, see clientOf()
+    private final String clientHeader;
 
-    public CityController(CityService cityService) {
+    public CityController(CityService cityService, IngestionQueue ingestionQueue, ExecutionLanes lanes,
+                          ClientRateLimiter rateLimiter, ObjectMapper objectMapper, Validator validator,
+                          CityMetrics metrics,
+                          @Value("${cityservice.rate-limit.client-header:}") String clientHeader) {
         this.cityService = cityService;
+        this.ingestionQueue = ingestionQueue;
+        this.lanes = lanes;
+        this.rateLimiter = rateLimiter;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.metrics = metrics;
+        this.clientHeader = clientHeader;
+    }
+
+    // The body is a JSON array of distances. It's read and written to the database in chunks,
+    // so huge datasets don't have to fit into memory at once
+    @PostMapping(value = "/distance", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<Void> addDistances(HttpServletRequest request) {
+        return lanes.database(() -> {
+            try (DistanceStreamReader distances = new DistanceStreamReader(objectMapper, validator, request.getInputStream())) {
+                cityService.addDistances(distances);
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // The body is validated right away, but distances are written later by the ingestion queue.
+    // The response refers to the status of the batch
+    @PostMapping(value = "/distance", params = "async=true", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<IngestionBatchDTO> addDistancesAsync(HttpServletRequest request) throws IOException {
+        List<DistanceDTO> distances = new ArrayList<>();
+        try (DistanceStreamReader reader = new DistanceStreamReader(objectMapper, validator, request.getInputStream())) {
+            reader.forEachRemaining(distances::add);
+        }
+
+        IngestionBatchDTO batch = ingestionQueue.submit(distances);
+        return ResponseEntity.accepted()
+                .location(URI.create("/city/distance/batch/" + batch.getId()))
+                .body(batch);
+    }
+
+    @GetMapping("/distance/batch/{id}")
+    public IngestionBatchDTO getBatchStatus(@PathVariable String id) {
+        return ingestionQueue.getStatus(id);
     }
 
-    @PostMapping("/distance")
-    public void addDistances(@Valid @RequestBody List<DistanceDTO> distances) {
-        cityService.addDistances(distances);
+    @PutMapping("/coordinates")
+    public CompletableFuture<Void> updateCoordinates(
+            @RequestBody @NotEmpty List<@Valid CityCoordinatesDTO> coordinates) {
+        return lanes.database(() -> {
+            cityService.updateCoordinates(coordinates);
+            return null;
+        });
+    }
+
+    // Distances of some time of day are only appended, so frequent changes of traffic don't rewrite distances
+    // and don't rebuild anything which is built from them
+    @PostMapping("/distance/profile")
+    public CompletableFuture<Void> addProfiles(@RequestBody @NotEmpty List<@Valid DistanceProfileDTO> profiles) {
+        return lanes.database(() -> {
+            cityService.addProfiles(profiles);
+            return null;
+        });
     }
 
     @GetMapping("/path")
-    public List<PathResponse> findPath(@RequestParam @NotEmpty @NotBlank String start,
-                                       @RequestParam @NotEmpty @NotBlank String destination) {
-        return cityService.findAllPaths(new PathRequestDTO(start, destination));
+    public CompletableFuture<ResponseEntity<List<PathResponse>>> findPath(
+            @RequestParam @NotEmpty @NotBlank String start,
+            @RequestParam @NotEmpty @NotBlank String destination,
+            @RequestParam(required = false) @Min(1) Integer k,
+            @RequestParam(required = false) @Min(1) Long maxDistance,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.TIME) LocalTime departure,
+            HttpServletRequest request) {
+        PathRequestDTO pathRequest = new PathRequestDTO(start, destination, k, maxDistance, departure);
+        return query(request, cityService.estimateCost(pathRequest), () -> {
+            PathSearchResult result = cityService.searchPaths(pathRequest);
+            return ResponseEntity.ok()
+                    .header(GRAPH_VERSION_HEADER, String.valueOf(result.getGraphVersion()))
+                    .header(TRUNCATED_HEADER, String.valueOf(result.isTruncated()))
+                    .header(DOWNGRADED_HEADER, String.valueOf(result.isDowngraded()))
+                    .body(result.getPaths());
+        });
+    }
+
+    // Paths are written as newline delimited JSON as soon as they are found, in ascending order of distance.
+    // If the client closes the connection, then the next write fails and the search stops.
+    // All paths are searched on the query lane, the response is written by the web server in between
+    @GetMapping(value = "/path", produces = NDJSON_VALUE)
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> streamPath(
+            @RequestParam @NotEmpty @NotBlank String start,
+            @RequestParam @NotEmpty @NotBlank String destination,
+            @RequestParam(required = false) @Min(1) Integer k,
+            @RequestParam(required = false) @Min(1) Long maxDistance,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.TIME) LocalTime departure,
+            HttpServletRequest request) {
+        PathRequestDTO pathRequest = new PathRequestDTO(start, destination, k, maxDistance, departure);
+        return query(request, cityService.estimateCost(pathRequest), () -> cityService.streamPaths(pathRequest))
+                .thenApply(this::toNdjson);
+    }
+
+    // The estimated cost is taken from the rate limit before the query is queued. If the query lane rejects it,
+    // then nothing was searched, so the cost is given back
+    private <T> CompletableFuture<T> query(HttpServletRequest request, long cost, Supplier<T> task) {
+        String client = clientOf(request);
+        rateLimiter.acquire(client, cost);
+        try {
+            return lanes.query(task);
+        } catch (OverloadedException e) {
+            rateLimiter.refund(client, cost);
+            throw e;
+        }
+    }
+
+    private ResponseEntity<StreamingResponseBody> toNdjson(PathStream paths) {
+        StreamingResponseBody body = outputStream -> {
+            int written = 0;
+            try {
+                List<PathResponse> chunk = nextChunk(paths);
+                while (!chunk.isEmpty()) {
+                    for (PathResponse path : chunk) {
+                        outputStream.write(objectMapper.writeValueAsBytes(path));
+                        outputStream.write('\n');
+                        written++;
+                    }
+                    outputStream.flush();
+                    chunk = nextChunk(paths);
+                }
+            } catch (OverloadedException e) {
+                // the status is already sent, so the stream just ends as if the client had asked for fewer paths
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                metrics.recordPaths(CityMetrics.STREAM, written);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON_VALUE))
+                .header(GRAPH_VERSION_HEADER, String.valueOf(paths.getGraphVersion()))
+                .header(DOWNGRADED_HEADER, String.valueOf(paths.isDowngraded()))
+                .body(body);
+    }
+
+    // Every chunk of paths is searched as a separate task of the query lane, so long streams count towards
+    // its saturation and wait their turn like other queries. A chunk is returned when it's full or when it has
+    // been searched for a while, so slow paths are still written as soon as they are found
+    private List<PathResponse> nextChunk(PathStream paths) throws InterruptedException {
+        try {
+            return lanes.query(() -> {
+                long start = System.nanoTime();
+                List<PathResponse> chunk = new ArrayList<>();
+                while (chunk.size() < STREAM_CHUNK_SIZE && System.nanoTime() - start < STREAM_CHUNK_NANOS
+                        && paths.hasNext()) {
+                    chunk.add(paths.next());
+                }
+                return chunk;
+            }).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @GetMapping("/path/shortest")
+    public CompletableFuture<ResponseEntity<PathResponse>> findShortestPath(
+            @RequestParam @NotEmpty @NotBlank String start,
+            @RequestParam @NotEmpty @NotBlank String destination,
+            @RequestParam(defaultValue = "DIJKSTRA") ShortestPathAlgorithm algorithm,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.TIME) LocalTime departure,
+            HttpServletRequest request) {
+        PathRequestDTO pathRequest = new PathRequestDTO(start, destination, null, null, departure);
+        return query(request, cityService.estimateSearchCost(Collections.singletonList(start)), () -> {
+            PathSearchResult result = cityService.findShortestPath(pathRequest, algorithm);
+            return ResponseEntity.ok()
+                    .header(GRAPH_VERSION_HEADER, String.valueOf(result.getGraphVersion()))
+                    .body(result.getPaths().get(0));
+        });
+    }
+
+    // Shortest paths between many pairs of cities. Results are in the order of pairs,
+    // a pair which can't be answered gets an error message instead of a path
+    @PostMapping("/path/batch")
+    public CompletableFuture<ResponseEntity<List<PathBatchItemDTO>>> findShortestPaths(
+            @RequestBody @NotEmpty @Size(max = MAX_BATCH_PAIRS) List<@Valid CityPairDTO> pairs,
+            HttpServletRequest request) {
+        List<String> startCities = new ArrayList<>(pairs.size());
+        for (CityPairDTO pair : pairs) {
+            startCities.add(pair.getStartCity());
+        }
+        return query(request, cityService.estimateSearchCost(startCities), () -> {
+            PathBatchResult result = cityService.findShortestPaths(pairs);
+            return ResponseEntity.ok()
+                    .header(GRAPH_VERSION_HEADER, String.valueOf(result.getGraphVersion()))
+                    .body(result.getResults());
+        });
+    }
+
+    @PostMapping("/matrix")
+    public CompletableFuture<ResponseEntity<DistanceMatrixDTO>> findDistanceMatrix(
+            @RequestBody @Valid DistanceMatrixRequestDTO matrixRequest, HttpServletRequest request) {
+        return query(request, cityService.estimateSearchCost(matrixRequest.getOrigins()),
+                () -> cityService.findDistanceMatrix(matrixRequest.getOrigins(), matrixRequest.getDestinations()))
+                .thenApply(this::toJson);
+    }
+
+    private ResponseEntity<DistanceMatrixDTO> toJson(DistanceMatrix matrix) {
+        Long[][] distances = new Long[matrix.getOrigins().size()][matrix.getDestinations().size()];
+        for (int i = 0; i < distances.length; i++) {
+            for (int j = 0; j < distances[i].length; j++) {
+                long distance = matrix.distance(i, j);
+                distances[i][j] = distance == DistanceMatrix.UNREACHABLE ? null : distance;
+            }
+        }
+        return ResponseEntity.ok()
+                .header(GRAPH_VERSION_HEADER, String.valueOf(matrix.getGraphVersion()))
+                .body(new DistanceMatrixDTO(matrix.getOrigins(), matrix.getDestinations(), distances));
+    }
+
+    // Compact form of the matrix for large requests: the number of rows and the number of columns as 4-byte integers
+    // and then all distances row by row as 8-byte integers, -1 if there is no path. All numbers are big-endian
+    @PostMapping(value = "/matrix", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> findBinaryDistanceMatrix(
+            @RequestBody @Valid DistanceMatrixRequestDTO matrixRequest, HttpServletRequest request) {
+        return query(request, cityService.estimateSearchCost(matrixRequest.getOrigins()),
+                () -> cityService.findDistanceMatrix(matrixRequest.getOrigins(), matrixRequest.getDestinations()))
+                .thenApply(this::toBinary);
+    }
+
+    private ResponseEntity<StreamingResponseBody> toBinary(DistanceMatrix matrix) {
+        StreamingResponseBody body = outputStream -> {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+            output.writeInt(matrix.getOrigins().size());
+            output.writeInt(matrix.getDestinations().size());
+            for (long distance : matrix.getDistances()) {
+                output.writeLong(distance == DistanceMatrix.UNREACHABLE ? -1L : distance);
+            }
+            output.flush();
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(GRAPH_VERSION_HEADER, String.valueOf(matrix.getGraphVersion()))
+                .body(body);
+    }
+
+    // The component of the city and its size. It's a lookup in the component index,
+    // so it's answered right away instead of waiting in the query lane
+    @GetMapping("/{name}/reachable")
+    public ResponseEntity<ReachabilityDTO> findReachable(@PathVariable String name, HttpServletRequest request) {
+        rateLimiter.acquire(clientOf(request), QueryCostEstimator.LOOKUP_COST);
+        ReachabilityResult result = cityService.findReachable(name);
+        return ResponseEntity.ok()
+                .header(GRAPH_VERSION_HEADER, String.valueOf(result.getGraphVersion()))
+                .body(result.getReachability());
+    }
+
+    // Clients are identified for rate limits by their address, so they can't pick another identity to get
+    // a new budget. Behind a proxy every request comes from the proxy, so the header which the proxy sets is used
+    // instead. A proxy appends the address to X-Forwarded-For, so the last value is the one which the proxy has set
+    private String clientOf(HttpServletRequest request) {
+        String client = clientHeader.isEmpty() ? null : request.getHeader(clientHeader);
+        if (client == null || client.trim().isEmpty()) {
+            return request.getRemoteAddr();
+        }
+        return client.substring(client.lastIndexOf(',') + 1).trim();
     }
 
     @DeleteMapping("/distance")
-    public ResponseEntity<String> deleteAllDistances() {
-        cityService.deleteAllDistances();
-        return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+    public CompletableFuture<ResponseEntity<String>> deleteAllDistances() {
+        return lanes.database(() -> {
+            cityService.deleteAllDistances();
+            return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+        });
     }
 }
@@ -0,0 +1,87 @@
+package com.itechart.cityservice.controller;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itechart.cityservice.dto.DistanceDTO;
+import com.itechart.cityservice.exception.InvalidDistancesException;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Reads a JSON array of distances one element at a time, so the whole request body is never bound to a list.
+ * Every distance is validated as soon as it's read.
+ */
+public class DistanceStreamReader implements Iterator<DistanceDTO>, AutoCloseable {
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final JsonParser parser;
+    private boolean started;
+    private boolean finished;
+    private DistanceDTO next;
+
+    public DistanceStreamReader(ObjectMapper objectMapper, Validator validator, InputStream body) throws IOException {
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.parser = objectMapper.getFactory().createParser(body);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !finished) {
+            next = readNext();
+            finished = next == null;
+        }
+        return next != null;
+    }
+
+    @Override
+    public DistanceDTO next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        DistanceDTO result = next;
+        next = null;
+        return result;
+    }
+
+    private DistanceDTO readNext() {
+        try {
+            if (!started) {
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    throw new InvalidDistancesException("Distances should be sent as JSON array", null);
+                }
+                started = true;
+            }
+
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.END_ARRAY) {
+                return null;
+            }
+            if (token == null) {
+                throw new InvalidDistancesException("Unexpected end of distances array", null);
+            }
+
+            DistanceDTO distance = objectMapper.readValue(parser, DistanceDTO.class);
+            Set<ConstraintViolation<DistanceDTO>> violations = validator.validate(distance);
+            if (!violations.isEmpty()) {
+                throw new ConstraintViolationException(violations);
+            }
+            return distance;
+        } catch (IOException e) {
+            throw new InvalidDistancesException("Distances can't be read: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
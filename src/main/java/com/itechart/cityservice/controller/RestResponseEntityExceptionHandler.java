@@ -1,10 +1,16 @@
 package com.itechart.cityservice.controller;
 
 import com.itechart.cityservice.dto.ExceptionDTO;
+import com.itechart.cityservice.exception.InvalidDistancesException;
+import com.itechart.cityservice.exception.OverloadedException;
 import com.itechart.cityservice.exception.PathNotExistsException;
+import com.itechart.cityservice.exception.RateLimitedException;
+import com.itechart.cityservice.exception.RequestTooLargeException;
+import com.itechart.cityservice.exception.UnknownBatchException;
 import com.itechart.cityservice.exception.UnknownCityException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -18,17 +24,47 @@ public class RestResponseEntityExceptionHandler
         extends ResponseEntityExceptionHandler {
 
     @ExceptionHandler(value
-            = { UnknownCityException.class, PathNotExistsException.class })
+            = { UnknownCityException.class, PathNotExistsException.class, InvalidDistancesException.class,
+            RequestTooLargeException.class })
     public ResponseEntity<Object> handleConflict(
             RuntimeException ex, WebRequest request) {
         ExceptionDTO bodyOfResponse = new ExceptionDTO(ex.getMessage());
         return handleExceptionInternal(ex, bodyOfResponse,
-                new HttpHeaders(), HttpStatus.BAD_REQUEST, request);
+                jsonHeaders(), HttpStatus.BAD_REQUEST, request);
     }
 
     @ExceptionHandler(value = { ConstraintViolationException.class })
     public ResponseEntity<Object> handleConflict(ConstraintViolationException ex, WebRequest request) {
         ExceptionDTO bodyOfResponse = new ExceptionDTO(ex.getMessage());
-        return handleExceptionInternal(ex, bodyOfResponse, new HttpHeaders(), HttpStatus.BAD_REQUEST, request);
+        return handleExceptionInternal(ex, bodyOfResponse, jsonHeaders(), HttpStatus.BAD_REQUEST, request);
+    }
+
+    @ExceptionHandler(value = { UnknownBatchException.class })
+    public ResponseEntity<Object> handleNotFound(UnknownBatchException ex, WebRequest request) {
+        ExceptionDTO bodyOfResponse = new ExceptionDTO(ex.getMessage());
+        return handleExceptionInternal(ex, bodyOfResponse, jsonHeaders(), HttpStatus.NOT_FOUND, request);
+    }
+
+    @ExceptionHandler(value = { OverloadedException.class })
+    public ResponseEntity<Object> handleOverloaded(OverloadedException ex, WebRequest request) {
+        ExceptionDTO bodyOfResponse = new ExceptionDTO(ex.getMessage());
+        HttpHeaders headers = jsonHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()));
+        return handleExceptionInternal(ex, bodyOfResponse, headers, HttpStatus.SERVICE_UNAVAILABLE, request);
+    }
+
+    @ExceptionHandler(value = { RateLimitedException.class })
+    public ResponseEntity<Object> handleRateLimited(RateLimitedException ex, WebRequest request) {
+        ExceptionDTO bodyOfResponse = new ExceptionDTO(ex.getMessage());
+        HttpHeaders headers = jsonHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()));
+        return handleExceptionInternal(ex, bodyOfResponse, headers, HttpStatus.TOO_MANY_REQUESTS, request);
+    }
+
+    // errors are always sent as JSON, even if the client has asked for a streaming response
+    private HttpHeaders jsonHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return headers;
     }
 }
\ No newline at end of file
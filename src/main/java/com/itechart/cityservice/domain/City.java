@@ -6,12 +6,17 @@ import javax.persistence.*;
 
 @Data
 @Entity
-@Table
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_city_name", columnNames = "name"))
 public class City {
     @Id
     @GeneratedValue
     private Long id;
 
-    @Column
+    @Column(nullable = false)
     private String name;
+
+    // Coordinates in degrees are optional, they are used only to direct A* search to the destination
+    private Double latitude;
+
+    private Double longitude;
 }
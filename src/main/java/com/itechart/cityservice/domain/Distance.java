@@ -4,9 +4,12 @@ import lombok.Data;
 
 import javax.persistence.*;
 
+// Distances are bidirectional, so the pair of cities is normalized: id of the first city is always smaller.
+// It allows to keep a single row for both directions and to enforce it with the unique constraint
 @Data
 @Entity
-@Table
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_distance_cities", columnNames = {"first_city", "second_city"}),
+        indexes = @Index(name = "idx_distance_second_city", columnList = "second_city"))
 public class Distance {
     @Id
     @GeneratedValue
@@ -0,0 +1,32 @@
+package com.itechart.cityservice.domain;
+
+import lombok.Data;
+
+import javax.persistence.*;
+
+// Distance which is valid only during the same interval of every day, it overrides the distance itself then.
+// Profiles are only appended: every change is a new row, and where intervals of the same distance overlap,
+// the one of the latest revision wins. So a change of traffic doesn't rewrite any existing rows
+@Data
+@Entity
+@Table(indexes = @Index(name = "idx_distance_profile_distance", columnList = "distance_id"))
+public class DistanceProfile {
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @ManyToOne
+    @JoinColumn(name = "distance_id")
+    private Distance base;
+
+    // minutes of the day, the interval goes over midnight if "toMinute" is before "fromMinute"
+    // and takes the whole day if they are equal
+    private Integer fromMinute;
+
+    private Integer toMinute;
+
+    private Long distance;
+
+    // revision of the graph which has appended the profile, see GraphRevision
+    private Long revision;
+}
@@ -0,0 +1,21 @@
+package com.itechart.cityservice.domain;
+
+import lombok.Data;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+// Outbox of committed changes of the graph, one row per revision (see GraphRevision). It's written by the same
+// transaction as the changes themselves, so other instances of the service can apply exactly the same changes
+// to their cached graphs in the order of revisions
+@Data
+@Entity
+public class GraphChange {
+    @Id
+    private Long revision;
+
+    // changed distances, coordinates and profiles as JSON, null if they were too many and the graph has to be reloaded
+    @Column(columnDefinition = "text")
+    private String changes;
+}
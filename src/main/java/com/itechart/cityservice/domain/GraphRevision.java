@@ -0,0 +1,19 @@
+package com.itechart.cityservice.domain;
+
+import lombok.Data;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+// Single row counter of committed changes of distances and cities. Every writing transaction increments it,
+// so a cached graph which knows its revision can find out if it's stale
+@Data
+@Entity
+public class GraphRevision {
+    public static final int ID = 1;
+
+    @Id
+    private Integer id;
+
+    private Long revision;
+}
@@ -7,6 +7,7 @@ import lombok.NoArgsConstructor;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
 
 @Data
 @AllArgsConstructor
@@ -20,6 +21,7 @@ public class DistanceDTO {
     @NotBlank
     private String cityB;
 
+    @NotNull
     @Min(1)
     private Long distance;
 }
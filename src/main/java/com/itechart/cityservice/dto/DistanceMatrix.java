@@ -0,0 +1,26 @@
+package com.itechart.cityservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DistanceMatrix {
+    public static final long UNREACHABLE = Long.MAX_VALUE;
+
+    private List<String> origins;
+    private List<String> destinations;
+    // Row-major matrix: the distance from origin "i" to destination "j" is at i * destinations.size() + j.
+    // Pairs without a path have UNREACHABLE distance
+    private long[] distances;
+    // version of the cached graph which was used for the matrix
+    private Long graphVersion;
+
+    public long distance(int origin, int destination) {
+        return distances[origin * destinations.size() + destination];
+    }
+}
@@ -0,0 +1,17 @@
+package com.itechart.cityservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DistanceMatrixDTO {
+    private List<String> origins;
+    private List<String> destinations;
+    // distances[i][j] is the shortest distance from origins[i] to destinations[j] or null if there is no path
+    private Long[][] distances;
+}
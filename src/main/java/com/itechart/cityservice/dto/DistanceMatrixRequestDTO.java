@@ -0,0 +1,20 @@
+package com.itechart.cityservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotEmpty;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DistanceMatrixRequestDTO {
+    @NotEmpty
+    private List<@NotBlank String> origins;
+
+    @NotEmpty
+    private List<@NotBlank String> destinations;
+}
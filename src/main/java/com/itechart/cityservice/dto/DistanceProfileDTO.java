@@ -0,0 +1,40 @@
+package com.itechart.cityservice.dto;
+
+import com.itechart.cityservice.graph.WeightProfiles;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.time.LocalTime;
+
+// Distance between two cities during the same interval of every day, it can be set only for an existing distance.
+// Times are taken up to minutes. The interval goes over midnight if "to" is before "from"
+// and takes the whole day if they are equal
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DistanceProfileDTO {
+    @NotEmpty
+    @NotBlank
+    private String cityA;
+
+    @NotEmpty
+    @NotBlank
+    private String cityB;
+
+    @NotNull
+    private LocalTime from;
+
+    @NotNull
+    private LocalTime to;
+
+    @NotNull
+    @Min(1)
+    @Max(WeightProfiles.MAX_DISTANCE)
+    private Long distance;
+}
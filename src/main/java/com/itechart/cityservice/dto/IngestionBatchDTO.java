@@ -0,0 +1,17 @@
+package com.itechart.cityservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class IngestionBatchDTO {
+    private String id;
+    private IngestionStatus status;
+    // number of distances in the batch
+    private Integer size;
+    // the reason of the failure for FAILED batches
+    private String errorMessage;
+}
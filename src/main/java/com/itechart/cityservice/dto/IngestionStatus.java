@@ -0,0 +1,8 @@
+package com.itechart.cityservice.dto;
+
+public enum IngestionStatus {
+    QUEUED,
+    WRITING,
+    DONE,
+    FAILED
+}
@@ -0,0 +1,16 @@
+package com.itechart.cityservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PathBatchItemDTO {
+    private String startCity;
+    private String destinationCity;
+    // the shortest path or null if it can't be found, then "errorMessage" tells why
+    private PathResponse path;
+    private String errorMessage;
+}
@@ -0,0 +1,17 @@
+package com.itechart.cityservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PathBatchResult {
+    // results are in the same order as pairs of the request
+    private List<PathBatchItemDTO> results;
+    // version of the cached graph which was used for all pairs
+    private Long graphVersion;
+}
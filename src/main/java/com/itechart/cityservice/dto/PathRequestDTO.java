@@ -4,8 +4,10 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotEmpty;
+import java.time.LocalTime;
 
 @Data
 @AllArgsConstructor
@@ -18,4 +20,24 @@ public class PathRequestDTO {
     @NotEmpty
     @NotBlank
     private String destinationCity;
+
+    // How many of the shortest paths should be returned. If neither "k" nor "maxDistance" is set,
+    // then all paths between the cities are returned.
+    @Min(1)
+    private Integer k;
+
+    @Min(1)
+    private Long maxDistance;
+
+    // Distances of this time of day are used for the whole path, see DistanceProfileDTO.
+    // If it's not set, then the distances themselves are used
+    private LocalTime departure;
+
+    public PathRequestDTO(String startCity, String destinationCity, Integer k, Long maxDistance) {
+        this(startCity, destinationCity, k, maxDistance, null);
+    }
+
+    public PathRequestDTO(String startCity, String destinationCity) {
+        this(startCity, destinationCity, null, null);
+    }
 }
@@ -0,0 +1,24 @@
+package com.itechart.cityservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PathSearchResult {
+    private List<PathResponse> paths;
+    // version of the cached graph which was used for the search
+    private Long graphVersion;
+    // true if the search was stopped by its time or size budget, then only a part of paths is returned
+    private boolean truncated;
+    // true if the search of all paths was too expensive, so only the shortest of them were searched
+    private boolean downgraded;
+
+    public PathSearchResult(List<PathResponse> paths, Long graphVersion) {
+        this(paths, graphVersion, false, false);
+    }
+}
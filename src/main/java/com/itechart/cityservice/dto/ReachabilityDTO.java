@@ -0,0 +1,19 @@
+package com.itechart.cityservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReachabilityDTO {
+    private String city;
+    // Name of the city which represents the component. Cities have a path between them if and only if
+    // they have the same component in the same version of the graph
+    private String component;
+    // cities which can be reached from the city, including itself
+    private Integer cities;
+    // distances between the reachable cities
+    private Long distances;
+}
@@ -0,0 +1,14 @@
+package com.itechart.cityservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReachabilityResult {
+    private ReachabilityDTO reachability;
+    // version of the cached graph which the component was taken from
+    private Long graphVersion;
+}
@@ -0,0 +1,8 @@
+package com.itechart.cityservice.dto;
+
+public enum ShortestPathAlgorithm {
+    // bidirectional Dijkstra, it doesn't need anything except distances
+    DIJKSTRA,
+    // A* directed by coordinates of cities, it falls back to plain Dijkstra for cities without coordinates
+    ASTAR
+}
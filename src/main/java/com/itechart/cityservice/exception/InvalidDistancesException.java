@@ -0,0 +1,8 @@
+package com.itechart.cityservice.exception;
+
+public class InvalidDistancesException extends RuntimeException {
+
+    public InvalidDistancesException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,15 @@
+package com.itechart.cityservice.exception;
+
+public class OverloadedException extends RuntimeException {
+    // how long the client should wait before the next attempt
+    private final long retryAfterSeconds;
+
+    public OverloadedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,15 @@
+package com.itechart.cityservice.exception;
+
+public class RateLimitedException extends RuntimeException {
+    // how long the client should wait before the next attempt
+    private final long retryAfterSeconds;
+
+    public RateLimitedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,8 @@
+package com.itechart.cityservice.exception;
+
+public class RequestTooLargeException extends RuntimeException {
+
+    public RequestTooLargeException(String message) {
+        super(message);
+    }
+}
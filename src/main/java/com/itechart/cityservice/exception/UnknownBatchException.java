@@ -0,0 +1,8 @@
+package com.itechart.cityservice.exception;
+
+public class UnknownBatchException extends RuntimeException {
+
+    public UnknownBatchException(String message) {
+        super(message);
+    }
+}
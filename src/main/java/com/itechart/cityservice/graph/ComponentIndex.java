@@ -0,0 +1,123 @@
+package com.itechart.cityservice.graph;
+
+import java.util.Arrays;
+
+/**
+ * Connected components of a {@link GraphSnapshot}. They are found by union-find, and the forest is flattened
+ * after every change, so every city points right to the representative of its component and a pair of cities
+ * is checked in constant time. Every representative knows how many cities and distances its component has,
+ * i.e. how much a search from any of its cities can reach.
+ * Distances are never deleted one by one, so components can only merge: new distances are applied to a copy
+ * of the index by unions, and the index is built from scratch only for a reloaded or cleared graph.
+ */
+public class ComponentIndex {
+    // representative of the component of every city, it's the city with the smallest id in the component
+    private final int[] representatives;
+    // only entries of representatives are meaningful
+    private final int[] componentCities;
+    private final long[] componentEdges;
+
+    private ComponentIndex(int[] representatives, int[] componentCities, long[] componentEdges) {
+        this.representatives = representatives;
+        this.componentCities = componentCities;
+        this.componentEdges = componentEdges;
+    }
+
+    // the index of the graph in compressed sparse row form, see GraphSnapshot
+    static ComponentIndex of(int[] offsets, int[] targets) {
+        int cityCount = offsets.length - 1;
+        int[] parents = new int[cityCount];
+        int[] cities = new int[cityCount];
+        long[] edges = new long[cityCount];
+        for (int city = 0; city < cityCount; city++) {
+            parents[city] = city;
+            cities[city] = 1;
+        }
+
+        for (int city = 0; city < cityCount; city++) {
+            for (int edge = offsets[city]; edge < offsets[city + 1]; edge++) {
+                // every distance is stored once for each direction, but it's counted only once
+                if (targets[edge] > city) {
+                    union(parents, cities, edges, city, targets[edge]);
+                }
+            }
+        }
+        return flatten(parents, cities, edges);
+    }
+
+    // Returns the index with added cities and distances, this index stays untouched. Added cities get the next ids,
+    // the added distances are given by pairs of ids and they must not connect cities which were adjacent before
+    ComponentIndex withEdges(int cityCount, int[] from, int[] to, int count) {
+        int[] parents = Arrays.copyOf(representatives, cityCount);
+        int[] cities = Arrays.copyOf(componentCities, cityCount);
+        long[] edges = Arrays.copyOf(componentEdges, cityCount);
+        for (int city = representatives.length; city < cityCount; city++) {
+            parents[city] = city;
+            cities[city] = 1;
+        }
+
+        for (int i = 0; i < count; i++) {
+            union(parents, cities, edges, from[i], to[i]);
+        }
+        return flatten(parents, cities, edges);
+    }
+
+    private static void union(int[] parents, int[] cities, long[] edges, int firstCity, int secondCity) {
+        int first = find(parents, firstCity);
+        int second = find(parents, secondCity);
+        if (first == second) {
+            edges[first]++;
+            return;
+        }
+        // the smaller id becomes the representative, so a component keeps its id while smaller ones join it
+        int root = Math.min(first, second);
+        int child = Math.max(first, second);
+        parents[child] = root;
+        cities[root] += cities[child];
+        edges[root] += edges[child] + 1;
+    }
+
+    // path halving, every visited city skips its parent
+    private static int find(int[] parents, int city) {
+        while (parents[city] != city) {
+            parents[city] = parents[parents[city]];
+            city = parents[city];
+        }
+        return city;
+    }
+
+    // Every parent has a smaller id than its child, so when a city is visited its parent is already flat
+    private static ComponentIndex flatten(int[] parents, int[] cities, long[] edges) {
+        for (int city = 0; city < parents.length; city++) {
+            parents[city] = parents[parents[city]];
+        }
+        return new ComponentIndex(parents, cities, edges);
+    }
+
+    public boolean isConnected(int firstCity, int secondCity) {
+        return representatives[firstCity] == representatives[secondCity];
+    }
+
+    // Id of the city which represents the component of the city. It's the same for all cities of the component,
+    // but it can change when the component is merged with another one or the graph is reloaded
+    public int component(int city) {
+        return representatives[city];
+    }
+
+    // cities which can be reached from the city, including itself
+    public int reachableCities(int city) {
+        return componentCities[representatives[city]];
+    }
+
+    // distances which can be reached from the city
+    public long reachableEdges(int city) {
+        return componentEdges[representatives[city]];
+    }
+
+    // Cyclomatic number of the component of the city, i.e. the number of its independent cycles.
+    // It's 0 for a tree where there is exactly one path between any two cities, and every cycle
+    // roughly doubles the number of paths
+    public long cycles(int city) {
+        return reachableEdges(city) - reachableCities(city) + 1;
+    }
+}
@@ -0,0 +1,399 @@
+package com.itechart.cityservice.graph;
+
+import java.util.Arrays;
+
+/**
+ * Contraction hierarchy of one revision of the graph. Cities are contracted one by one from the least important
+ * to the most important one. When a city is contracted, a shortcut is added between every two of its remaining
+ * neighbours unless a path which avoids the city (a witness) is not longer. Afterwards every city keeps only edges
+ * to more important cities, so a shortest path query goes only upward from both ends and settles a tiny part
+ * of the graph, see {@link ContractionHierarchySearch}.
+ * Every shortcut keeps the city which it bypasses, so paths are unpacked into the original edges.
+ * Cities which have too many neighbours when their turn comes are not contracted, they form the core of the graph
+ * and keep edges to all their neighbours in the core, so queries search the core in all directions.
+ */
+public class ContractionHierarchy {
+    // witness searches are stopped after this number of settled cities. A missed witness only adds a shortcut
+    // which isn't needed, so the hierarchy stays correct
+    private static final int WITNESS_SETTLE_LIMIT = 64;
+    // contraction of a city takes a witness search per neighbour and adds up to degree^2 / 2 shortcuts,
+    // so it stops when the next city has more neighbours than this
+    private static final int MAX_CONTRACTED_DEGREE = 32;
+
+    private final long revision;
+    // fingerprint of names of cities in the order of their ids, see citiesFingerprint()
+    private final long cities;
+    // position of every city in the contraction order
+    private final int[] ranks;
+    // upward edges in CSR form, edges of the city "i" are at positions [offsets[i], offsets[i + 1])
+    private final int[] offsets;
+    private final int[] targets;
+    private final long[] weights;
+    // the city which is bypassed by a shortcut, -1 for original edges
+    private final int[] middles;
+
+    // searches keep arrays of the size of the graph, so every thread reuses its own one
+    private final ThreadLocal<ContractionHierarchySearch> searches =
+            ThreadLocal.withInitial(() -> new ContractionHierarchySearch(this));
+
+    ContractionHierarchy(long revision, long cities, int[] ranks, int[] offsets, int[] targets, long[] weights,
+                         int[] middles) {
+        this.revision = revision;
+        this.cities = cities;
+        this.ranks = ranks;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.middles = middles;
+    }
+
+    // Full preprocessing: the order is chosen on the fly, the city which needs the fewest shortcuts goes first
+    public static ContractionHierarchy build(GraphSnapshot graph) {
+        Contraction contraction = new Contraction(graph);
+        contraction.contractByPriority();
+        return contraction.toHierarchy(graph);
+    }
+
+    // Re-contraction of a changed graph in a known order, e.g. the order of the previous hierarchy.
+    // Any order gives correct results, a good one only keeps the number of shortcuts small.
+    // Choosing the order is the most expensive part of the preprocessing, so this is much faster than build()
+    public static ContractionHierarchy rebuild(GraphSnapshot graph, int[] order) {
+        Contraction contraction = new Contraction(graph);
+        contraction.contractInOrder(order);
+        return contraction.toHierarchy(graph);
+    }
+
+    public long revision() {
+        return revision;
+    }
+
+    long cities() {
+        return cities;
+    }
+
+    // Cities are referred by ids, and the same graph gets other ids when its rows are loaded in another order.
+    // So the hierarchy fits only the graph of the same revision with the same names in the same order of ids
+    public boolean matches(GraphSnapshot graph) {
+        return revision == graph.revision() && ranks.length == graph.size() && cities == citiesFingerprint(graph);
+    }
+
+    // 64-bit FNV-1a hash of names of cities in the order of ids, every name is followed by a zero char
+    static long citiesFingerprint(GraphSnapshot graph) {
+        long hash = 0xcbf29ce484222325L;
+        for (int city = 0; city < graph.size(); city++) {
+            String name = graph.nameOf(city);
+            for (int i = 0; i <= name.length(); i++) {
+                hash ^= i < name.length() ? name.charAt(i) : 0;
+                hash *= 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    public int size() {
+        return ranks.length;
+    }
+
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    // cities in the contraction order
+    public int[] order() {
+        int[] order = new int[ranks.length];
+        for (int city = 0; city < ranks.length; city++) {
+            order[ranks[city]] = city;
+        }
+        return order;
+    }
+
+    // the search of the current thread, it must not be shared with other threads
+    public ContractionHierarchySearch search() {
+        return searches.get();
+    }
+
+    int rank(int city) {
+        return ranks[city];
+    }
+
+    int firstEdge(int city) {
+        return offsets[city];
+    }
+
+    int lastEdge(int city) {
+        return offsets[city + 1];
+    }
+
+    int target(int edge) {
+        return targets[edge];
+    }
+
+    long weight(int edge) {
+        return weights[edge];
+    }
+
+    int middle(int edge) {
+        return middles[edge];
+    }
+
+    // the upward edge between the cities, one of them has to be the lower city of the edge
+    int findEdge(int cityA, int cityB) {
+        int lower = ranks[cityA] < ranks[cityB] ? cityA : cityB;
+        int upper = lower == cityA ? cityB : cityA;
+        for (int edge = offsets[lower]; edge < offsets[lower + 1]; edge++) {
+            if (targets[edge] == upper) {
+                return edge;
+            }
+        }
+        throw new IllegalStateException("contraction hierarchy has no edge between " + cityA + " and " + cityB);
+    }
+
+    int[] ranks() {
+        return ranks;
+    }
+
+    int[] offsets() {
+        return offsets;
+    }
+
+    int[] targets() {
+        return targets;
+    }
+
+    long[] weights() {
+        return weights;
+    }
+
+    int[] middles() {
+        return middles;
+    }
+
+    /**
+     * Mutable state of the preprocessing. Every city keeps the list of its edges, edges to contracted cities
+     * are dropped lazily. When a city is contracted, its remaining edges become its upward edges.
+     */
+    private static class Contraction {
+        private final int size;
+        private final int[][] adjacentCities;
+        private final long[][] adjacentWeights;
+        private final int[][] adjacentMiddles;
+        private final int[] degrees;
+        private final boolean[] contracted;
+        private final int[] contractedNeighbours;
+        private final int[] ranks;
+
+        // state of witness searches, "distances" are valid only for cities whose "stamps" equal to "generation"
+        private final long[] distances;
+        private final int[] stamps;
+        private final NodeHeap heap;
+        private int generation;
+
+        Contraction(GraphSnapshot graph) {
+            this.size = graph.size();
+            this.adjacentCities = new int[size][];
+            this.adjacentWeights = new long[size][];
+            this.adjacentMiddles = new int[size][];
+            this.degrees = new int[size];
+            this.contracted = new boolean[size];
+            this.contractedNeighbours = new int[size];
+            this.ranks = new int[size];
+            this.distances = new long[size];
+            this.stamps = new int[size];
+            this.heap = new NodeHeap(size);
+
+            for (int city = 0; city < size; city++) {
+                int degree = graph.degree(city);
+                adjacentCities[city] = new int[Math.max(degree, 1)];
+                adjacentWeights[city] = new long[Math.max(degree, 1)];
+                adjacentMiddles[city] = new int[Math.max(degree, 1)];
+            }
+            for (int city = 0; city < size; city++) {
+                for (int edge = graph.firstEdge(city); edge < graph.lastEdge(city); edge++) {
+                    if (graph.target(edge) != city) {
+                        addEdge(city, graph.target(edge), graph.weight(edge), -1);
+                    }
+                }
+            }
+        }
+
+        // Priorities are updated lazily: the city with the smallest priority is checked again before
+        // it's contracted, because contractions of its neighbours could have changed it
+        void contractByPriority() {
+            NodeHeap queue = new NodeHeap(size);
+            for (int city = 0; city < size; city++) {
+                queue.push(city, priority(city));
+            }
+
+            int rank = 0;
+            while (!queue.isEmpty()) {
+                int city = queue.poll();
+                long priority = priority(city);
+                if (!queue.isEmpty() && priority > queue.peekKey()) {
+                    queue.push(city, priority);
+                    continue;
+                }
+                // cities with too many neighbours have the biggest priority, so the rest of cities form the core
+                if (degrees[city] > MAX_CONTRACTED_DEGREE) {
+                    keep(city, rank++);
+                    while (!queue.isEmpty()) {
+                        keep(queue.poll(), rank++);
+                    }
+                    break;
+                }
+                contract(city, rank++);
+            }
+        }
+
+        void contractInOrder(int[] order) {
+            int rank = 0;
+            for (; rank < order.length; rank++) {
+                dropContractedNeighbours(order[rank]);
+                if (degrees[order[rank]] > MAX_CONTRACTED_DEGREE) {
+                    break;
+                }
+                contract(order[rank], rank);
+            }
+            for (; rank < order.length; rank++) {
+                keep(order[rank], rank);
+            }
+        }
+
+        ContractionHierarchy toHierarchy(GraphSnapshot graph) {
+            int[] offsets = new int[size + 1];
+            for (int city = 0; city < size; city++) {
+                offsets[city + 1] = offsets[city] + degrees[city];
+            }
+            int[] targets = new int[offsets[size]];
+            long[] weights = new long[offsets[size]];
+            int[] middles = new int[offsets[size]];
+            for (int city = 0; city < size; city++) {
+                System.arraycopy(adjacentCities[city], 0, targets, offsets[city], degrees[city]);
+                System.arraycopy(adjacentWeights[city], 0, weights, offsets[city], degrees[city]);
+                System.arraycopy(adjacentMiddles[city], 0, middles, offsets[city], degrees[city]);
+            }
+            return new ContractionHierarchy(graph.revision(), citiesFingerprint(graph), ranks, offsets, targets,
+                    weights, middles);
+        }
+
+        // the city stays in the core with edges to all its neighbours which are not contracted
+        private void keep(int city, int rank) {
+            dropContractedNeighbours(city);
+            ranks[city] = rank;
+        }
+
+        // fewer added shortcuts and more contracted neighbours make the city less important
+        private long priority(int city) {
+            dropContractedNeighbours(city);
+            if (degrees[city] > MAX_CONTRACTED_DEGREE) {
+                return Long.MAX_VALUE;
+            }
+            return (long) shortcuts(city, false) - degrees[city] + contractedNeighbours[city];
+        }
+
+        private void contract(int city, int rank) {
+            dropContractedNeighbours(city);
+            shortcuts(city, true);
+            contracted[city] = true;
+            ranks[city] = rank;
+            for (int i = 0; i < degrees[city]; i++) {
+                contractedNeighbours[adjacentCities[city][i]]++;
+            }
+        }
+
+        // Returns the number of shortcuts which are needed to contract the city, they are added if "add" is set
+        private int shortcuts(int city, boolean add) {
+            int degree = degrees[city];
+            int[] neighbours = adjacentCities[city];
+            long[] neighbourWeights = adjacentWeights[city];
+            long maxWeight = 0L;
+            for (int i = 0; i < degree; i++) {
+                maxWeight = Math.max(maxWeight, neighbourWeights[i]);
+            }
+
+            int count = 0;
+            for (int i = 0; i < degree; i++) {
+                int from = neighbours[i];
+                long fromWeight = neighbourWeights[i];
+                witnessSearch(from, city, fromWeight + maxWeight);
+                for (int j = i + 1; j < degree; j++) {
+                    int to = neighbours[j];
+                    long viaDistance = fromWeight + neighbourWeights[j];
+                    if (stamps[to] == generation && distances[to] <= viaDistance) {
+                        continue;
+                    }
+                    count++;
+                    if (add) {
+                        addEdge(from, to, viaDistance, city);
+                        addEdge(to, from, viaDistance, city);
+                    }
+                }
+            }
+            return count;
+        }
+
+        // Dijkstra from "from" which avoids "excludedCity" and isn't interested in distances over "maxDistance"
+        private void witnessSearch(int from, int excludedCity, long maxDistance) {
+            generation++;
+            heap.clear();
+            stamps[from] = generation;
+            distances[from] = 0L;
+            heap.push(from, 0L);
+
+            int settledCount = 0;
+            while (!heap.isEmpty() && heap.peekKey() <= maxDistance && settledCount++ < WITNESS_SETTLE_LIMIT) {
+                int currentCity = heap.poll();
+                long currentDistance = distances[currentCity];
+                for (int i = 0; i < degrees[currentCity]; i++) {
+                    int nextCity = adjacentCities[currentCity][i];
+                    if (nextCity == excludedCity || contracted[nextCity]) {
+                        continue;
+                    }
+                    long nextDistance = currentDistance + adjacentWeights[currentCity][i];
+                    if (stamps[nextCity] != generation || nextDistance < distances[nextCity]) {
+                        stamps[nextCity] = generation;
+                        distances[nextCity] = nextDistance;
+                        heap.push(nextCity, nextDistance);
+                    }
+                }
+            }
+        }
+
+        private void dropContractedNeighbours(int city) {
+            int kept = 0;
+            for (int i = 0; i < degrees[city]; i++) {
+                if (!contracted[adjacentCities[city][i]]) {
+                    adjacentCities[city][kept] = adjacentCities[city][i];
+                    adjacentWeights[city][kept] = adjacentWeights[city][i];
+                    adjacentMiddles[city][kept] = adjacentMiddles[city][i];
+                    kept++;
+                }
+            }
+            degrees[city] = kept;
+        }
+
+        // the edge is added or its weight is decreased, there is at most one edge between two cities
+        private void addEdge(int from, int to, long weight, int middle) {
+            for (int i = 0; i < degrees[from]; i++) {
+                if (adjacentCities[from][i] == to) {
+                    if (weight < adjacentWeights[from][i]) {
+                        adjacentWeights[from][i] = weight;
+                        adjacentMiddles[from][i] = middle;
+                    }
+                    return;
+                }
+            }
+
+            int degree = degrees[from];
+            if (degree == adjacentCities[from].length) {
+                int capacity = degree * 2;
+                adjacentCities[from] = Arrays.copyOf(adjacentCities[from], capacity);
+                adjacentWeights[from] = Arrays.copyOf(adjacentWeights[from], capacity);
+                adjacentMiddles[from] = Arrays.copyOf(adjacentMiddles[from], capacity);
+            }
+            adjacentCities[from][degree] = to;
+            adjacentWeights[from][degree] = weight;
+            adjacentMiddles[from][degree] = middle;
+            degrees[from] = degree + 1;
+        }
+    }
+}
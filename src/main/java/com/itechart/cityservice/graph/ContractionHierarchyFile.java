@@ -0,0 +1,114 @@
+package com.itechart.cityservice.graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary file with a {@link ContractionHierarchy}. The file contains the header (magic number, format, revision,
+ * fingerprint of cities, sizes), ranks of cities and the CSR arrays of upward edges, followed by CRC32
+ * of everything before it. Cities are referred by their ids, so the file can be used only with the graph
+ * of the same revision whose cities have the same ids, see {@link ContractionHierarchy#matches(GraphSnapshot)}.
+ */
+public class ContractionHierarchyFile {
+    private static final int MAGIC = 0x43534348;
+    // files of older formats are rejected, so the hierarchy is built again
+    private static final int FORMAT = 2;
+    // magic, format, revision, fingerprint of cities, number of cities and number of upward edges
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+
+    private ContractionHierarchyFile() {
+    }
+
+    // The hierarchy is written to a temporary file which then replaces the old one, so readers never see a partial file
+    public static void write(ContractionHierarchy hierarchy, Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        CRC32 checksum = new CRC32();
+        try (OutputStream fileStream = Files.newOutputStream(temporary);
+             CheckedOutputStream checkedStream = new CheckedOutputStream(new BufferedOutputStream(fileStream, 1 << 16), checksum);
+             DataOutputStream output = new DataOutputStream(checkedStream)) {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT);
+            output.writeLong(hierarchy.revision());
+            output.writeLong(hierarchy.cities());
+            output.writeInt(hierarchy.size());
+            output.writeInt(hierarchy.edgeCount());
+
+            for (int rank : hierarchy.ranks()) {
+                output.writeInt(rank);
+            }
+            for (int offset : hierarchy.offsets()) {
+                output.writeInt(offset);
+            }
+            for (int target : hierarchy.targets()) {
+                output.writeInt(target);
+            }
+            for (long weight : hierarchy.weights()) {
+                output.writeLong(weight);
+            }
+            for (int middle : hierarchy.middles()) {
+                output.writeInt(middle);
+            }
+
+            output.flush();
+            output.writeLong(checksum.getValue());
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static ContractionHierarchy read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + 8) {
+                throw new IOException("contraction hierarchy file is too short: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            CRC32 checksum = new CRC32();
+            ByteBuffer content = buffer.duplicate();
+            content.limit((int) size - 8);
+            checksum.update(content);
+            if (checksum.getValue() != buffer.getLong((int) size - 8)) {
+                throw new IOException("contraction hierarchy file is corrupted: " + file);
+            }
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT) {
+                throw new IOException("unknown format of contraction hierarchy file: " + file);
+            }
+            long revision = buffer.getLong();
+            long cities = buffer.getLong();
+            int cityCount = buffer.getInt();
+            int edgeCount = buffer.getInt();
+
+            int[] ranks = new int[cityCount];
+            buffer.asIntBuffer().get(ranks);
+            buffer.position(buffer.position() + ranks.length * Integer.BYTES);
+            int[] offsets = new int[cityCount + 1];
+            buffer.asIntBuffer().get(offsets);
+            buffer.position(buffer.position() + offsets.length * Integer.BYTES);
+            int[] targets = new int[edgeCount];
+            buffer.asIntBuffer().get(targets);
+            buffer.position(buffer.position() + targets.length * Integer.BYTES);
+            long[] weights = new long[edgeCount];
+            buffer.asLongBuffer().get(weights);
+            buffer.position(buffer.position() + weights.length * Long.BYTES);
+            int[] middles = new int[edgeCount];
+            buffer.asIntBuffer().get(middles);
+
+            return new ContractionHierarchy(revision, cities, ranks, offsets, targets, weights, middles);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.itechart.cityservice.graph;
+
+import com.itechart.cityservice.dto.PathResponse;
+
+import java.util.Arrays;
+
+/**
+ * Shortest path query over a {@link ContractionHierarchy}. Both searches go only upward (and in all directions
+ * inside the core), from the start and from the destination, and the shortest path goes through the city
+ * where the sum of both distances is the smallest. Shortcuts of the found path are unpacked into the original edges.
+ * The search keeps its state between queries, so it must be used by one thread only.
+ */
+public class ContractionHierarchySearch {
+    private final ContractionHierarchy hierarchy;
+
+    // state of the forward (index 0) and the backward (index 1) searches.
+    // "distances" and "previousEdges" are valid only for cities whose "stamps" equal to the current "generation"
+    private final long[][] distances;
+    private final int[][] previousEdges;
+    private final int[][] previousCities;
+    private final int[][] stamps;
+    private final NodeHeap[] heaps;
+    private int generation;
+    private long expandedCities;
+
+    private int[] path = new int[16];
+    private int pathLength;
+
+    ContractionHierarchySearch(ContractionHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+        int size = hierarchy.size();
+        this.distances = new long[][]{new long[size], new long[size]};
+        this.previousEdges = new int[][]{new int[size], new int[size]};
+        this.previousCities = new int[][]{new int[size], new int[size]};
+        this.stamps = new int[][]{new int[size], new int[size]};
+        this.heaps = new NodeHeap[]{new NodeHeap(size), new NodeHeap(size)};
+    }
+
+    // "graph" has to be the graph which the hierarchy was built for, it gives names of cities.
+    // Returns null if there is no path
+    public PathResponse shortestPath(GraphSnapshot graph, int startCity, int destinationCity) {
+        generation++;
+        expandedCities = 0;
+        heaps[0].clear();
+        heaps[1].clear();
+        reach(0, startCity, -1, -1, 0L);
+        reach(1, destinationCity, -1, -1, 0L);
+
+        long bestDistance = Long.MAX_VALUE;
+        int meetingCity = -1;
+        while (!heaps[0].isEmpty() || !heaps[1].isEmpty()) {
+            int side = heaps[1].isEmpty() || (!heaps[0].isEmpty() && heaps[0].peekKey() <= heaps[1].peekKey()) ? 0 : 1;
+            // nothing shorter than the best path can be found by this side anymore
+            if (heaps[side].peekKey() >= bestDistance) {
+                heaps[side].clear();
+                continue;
+            }
+
+            int currentCity = heaps[side].poll();
+            expandedCities++;
+            long currentDistance = distances[side][currentCity];
+            if (isReached(1 - side, currentCity) && currentDistance + distances[1 - side][currentCity] < bestDistance) {
+                bestDistance = currentDistance + distances[1 - side][currentCity];
+                meetingCity = currentCity;
+            }
+
+            if (isStalled(side, currentCity, currentDistance)) {
+                continue;
+            }
+            for (int edge = hierarchy.firstEdge(currentCity); edge < hierarchy.lastEdge(currentCity); edge++) {
+                int nextCity = hierarchy.target(edge);
+                long nextDistance = currentDistance + hierarchy.weight(edge);
+                if (!isReached(side, nextCity) || nextDistance < distances[side][nextCity]) {
+                    reach(side, nextCity, currentCity, edge, nextDistance);
+                }
+            }
+        }
+
+        if (meetingCity < 0) {
+            return null;
+        }
+        return new PathResponse(graph.namesOf(unpack(startCity, meetingCity), pathLength), bestDistance);
+    }
+
+    public long expandedCities() {
+        return expandedCities;
+    }
+
+    // Stall-on-demand: if a more important city which is already reached gives a shorter way down to this city,
+    // then no shortest path goes up through it, so its edges aren't relaxed
+    private boolean isStalled(int side, int city, long distance) {
+        for (int edge = hierarchy.firstEdge(city); edge < hierarchy.lastEdge(city); edge++) {
+            int upperCity = hierarchy.target(edge);
+            if (isReached(side, upperCity) && distances[side][upperCity] + hierarchy.weight(edge) < distance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isReached(int side, int city) {
+        return stamps[side][city] == generation;
+    }
+
+    private void reach(int side, int city, int previousCity, int previousEdge, long distance) {
+        stamps[side][city] = generation;
+        distances[side][city] = distance;
+        previousCities[side][city] = previousCity;
+        previousEdges[side][city] = previousEdge;
+        heaps[side].push(city, distance);
+    }
+
+    private int[] unpack(int startCity, int meetingCity) {
+        pathLength = 0;
+        append(startCity);
+
+        // edges of the forward search are collected from the meeting city back to the start
+        int forwardEdges = 0;
+        for (int city = meetingCity; city != startCity; city = previousCities[0][city]) {
+            forwardEdges++;
+        }
+        int[] edges = new int[forwardEdges];
+        int[] ends = new int[forwardEdges];
+        int index = forwardEdges;
+        for (int city = meetingCity; city != startCity; city = previousCities[0][city]) {
+            index--;
+            edges[index] = previousEdges[0][city];
+            ends[index] = city;
+        }
+        int from = startCity;
+        for (int i = 0; i < forwardEdges; i++) {
+            unpackEdge(from, ends[i], edges[i]);
+            from = ends[i];
+        }
+
+        // the backward search goes from the destination, so its edges are already in the order of the path
+        for (int city = meetingCity; previousCities[1][city] != -1; city = previousCities[1][city]) {
+            unpackEdge(city, previousCities[1][city], previousEdges[1][city]);
+        }
+        return path;
+    }
+
+    // appends cities of the edge after "from" up to "to"
+    private void unpackEdge(int from, int to, int edge) {
+        int middle = hierarchy.middle(edge);
+        if (middle < 0) {
+            append(to);
+            return;
+        }
+        unpackEdge(from, middle, hierarchy.findEdge(from, middle));
+        unpackEdge(middle, to, hierarchy.findEdge(middle, to));
+    }
+
+    private void append(int city) {
+        if (pathLength == path.length) {
+            path = Arrays.copyOf(path, pathLength * 2);
+        }
+        path[pathLength++] = city;
+    }
+}
@@ -0,0 +1,142 @@
+package com.itechart.cityservice.graph;
+
+import com.itechart.cityservice.dto.PathResponse;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * All-pairs shortest distances of one version of the graph. Row "i" of the flat matrices keeps distances
+ * from the city with id "i" to all other cities and the next city on the shortest path to each of them,
+ * so any lookup is just a few array reads.
+ */
+public class DistanceIndex {
+    public static final long UNREACHABLE = Long.MAX_VALUE;
+
+    // sources are split between tasks until a task has this number of sources
+    private static final int SOURCES_PER_TASK = 16;
+
+    private final GraphSnapshot graph;
+    private final int size;
+    private final long[] distances;
+    private final int[] nextCities;
+
+    private DistanceIndex(GraphSnapshot graph, long[] distances, int[] nextCities) {
+        this.graph = graph;
+        this.size = graph.size();
+        this.distances = distances;
+        this.nextCities = nextCities;
+    }
+
+    // Runs Dijkstra from every city, the sources are processed in parallel by the pool.
+    // Both matrices have size * size elements, so the graph has to be small enough for them
+    public static DistanceIndex build(GraphSnapshot graph, ForkJoinPool pool) {
+        int size = graph.size();
+        long[] distances = new long[size * size];
+        int[] nextCities = new int[size * size];
+        pool.invoke(new RowsTask(graph, distances, nextCities, 0, size));
+        return new DistanceIndex(graph, distances, nextCities);
+    }
+
+    // the index stays valid for all versions of the graph with these weights
+    public long weightsVersion() {
+        return graph.weightsVersion();
+    }
+
+    // returns UNREACHABLE if there is no path between the cities
+    public long distance(int from, int to) {
+        return distances[from * size + to];
+    }
+
+    // returns null if there is no path between the cities
+    public PathResponse path(int from, int to) {
+        long distance = distance(from, to);
+        if (distance == UNREACHABLE) {
+            return null;
+        }
+
+        int length = 1;
+        for (int city = from; city != to; city = nextCities[city * size + to]) {
+            length++;
+        }
+        int[] cities = new int[length];
+        int position = 0;
+        cities[position++] = from;
+        for (int city = from; city != to; ) {
+            city = nextCities[city * size + to];
+            cities[position++] = city;
+        }
+        return new PathResponse(graph.namesOf(cities, length), distance);
+    }
+
+    private static class RowsTask extends RecursiveAction {
+        private final GraphSnapshot graph;
+        private final long[] distances;
+        private final int[] nextCities;
+        private final int fromSource;
+        private final int toSource;
+
+        RowsTask(GraphSnapshot graph, long[] distances, int[] nextCities, int fromSource, int toSource) {
+            this.graph = graph;
+            this.distances = distances;
+            this.nextCities = nextCities;
+            this.fromSource = fromSource;
+            this.toSource = toSource;
+        }
+
+        @Override
+        protected void compute() {
+            if (toSource - fromSource > SOURCES_PER_TASK) {
+                int middle = (fromSource + toSource) >>> 1;
+                invokeAll(new RowsTask(graph, distances, nextCities, fromSource, middle),
+                        new RowsTask(graph, distances, nextCities, middle, toSource));
+                return;
+            }
+
+            // the heap and the settle order are reused for all sources of the task
+            NodeHeap heap = new NodeHeap(graph.size());
+            int[] settled = new int[graph.size()];
+            for (int source = fromSource; source < toSource; source++) {
+                computeRow(source, heap, settled);
+            }
+        }
+
+        private void computeRow(int source, NodeHeap heap, int[] settled) {
+            int size = graph.size();
+            int row = source * size;
+            Arrays.fill(distances, row, row + size, UNREACHABLE);
+            Arrays.fill(nextCities, row, row + size, -1);
+
+            distances[row + source] = 0L;
+            nextCities[row + source] = source;
+            heap.push(source, 0L);
+            int settledCount = 0;
+
+            while (!heap.isEmpty()) {
+                int currentCity = heap.poll();
+                settled[settledCount++] = currentCity;
+                long currentDistance = distances[row + currentCity];
+
+                for (int edge = graph.firstEdge(currentCity); edge < graph.lastEdge(currentCity); edge++) {
+                    int nextCity = graph.target(edge);
+                    long nextDistance = currentDistance + graph.weight(edge);
+                    if (nextDistance < distances[row + nextCity]) {
+                        distances[row + nextCity] = nextDistance;
+                        // previous city is kept here until the row is finished
+                        nextCities[row + nextCity] = currentCity;
+                        heap.push(nextCity, nextDistance);
+                    }
+                }
+            }
+
+            // previous cities are replaced by the first hop from the source. Cities are visited in the settle order,
+            // so the first hop of the previous city is always known already
+            for (int i = 1; i < settledCount; i++) {
+                int city = settled[i];
+                int previousCity = nextCities[row + city];
+                nextCities[row + city] = previousCity == source ? city : nextCities[row + previousCity];
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.itechart.cityservice.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ordered list of changed distances, coordinates and appended profiles which should be applied
+ * to a {@link GraphSnapshot}. If the same pair of cities occurs several times, then the latest distance wins.
+ */
+public class GraphDelta {
+    private final List<String> firstCities = new ArrayList<>();
+    private final List<String> secondCities = new ArrayList<>();
+    private long[] distances = new long[16];
+    private final List<String> coordinatesCities = new ArrayList<>();
+    private final List<double[]> coordinates = new ArrayList<>();
+    private final List<String> profileFirstCities = new ArrayList<>();
+    private final List<String> profileSecondCities = new ArrayList<>();
+    // intervals packed by WeightProfiles.pack()
+    private long[] profileIntervals = new long[16];
+    // revision of the database which contains the changes, 0 if it's unknown
+    private long revision;
+    // all distances were deleted, such delta has no other changes
+    private boolean cleared;
+    // the changes are too large to be passed as a delta, so the graph has to be reloaded from the database
+    private boolean reloadRequired;
+
+    public GraphDelta addDistance(String cityA, String cityB, long distance) {
+        if (firstCities.size() == distances.length) {
+            distances = Arrays.copyOf(distances, distances.length * 2);
+        }
+        distances[firstCities.size()] = distance;
+        firstCities.add(cityA);
+        secondCities.add(cityB);
+        return this;
+    }
+
+    public GraphDelta addCoordinates(String city, double latitude, double longitude) {
+        coordinatesCities.add(city);
+        coordinates.add(new double[]{latitude, longitude});
+        return this;
+    }
+
+    public GraphDelta addProfile(String cityA, String cityB, long interval) {
+        if (profileFirstCities.size() == profileIntervals.length) {
+            profileIntervals = Arrays.copyOf(profileIntervals, profileIntervals.length * 2);
+        }
+        profileIntervals[profileFirstCities.size()] = interval;
+        profileFirstCities.add(cityA);
+        profileSecondCities.add(cityB);
+        return this;
+    }
+
+    public long revision() {
+        return revision;
+    }
+
+    public GraphDelta setRevision(long revision) {
+        this.revision = revision;
+        return this;
+    }
+
+    public boolean isCleared() {
+        return cleared;
+    }
+
+    public GraphDelta setCleared(boolean cleared) {
+        this.cleared = cleared;
+        return this;
+    }
+
+    public boolean isReloadRequired() {
+        return reloadRequired;
+    }
+
+    public GraphDelta setReloadRequired(boolean reloadRequired) {
+        this.reloadRequired = reloadRequired;
+        return this;
+    }
+
+    // number of changed distances
+    public int size() {
+        return firstCities.size();
+    }
+
+    public int coordinatesSize() {
+        return coordinatesCities.size();
+    }
+
+    public int profilesSize() {
+        return profileFirstCities.size();
+    }
+
+    public boolean isEmpty() {
+        return firstCities.isEmpty() && coordinatesCities.isEmpty() && profileFirstCities.isEmpty() && !cleared;
+    }
+
+    public String firstCity(int index) {
+        return firstCities.get(index);
+    }
+
+    public String secondCity(int index) {
+        return secondCities.get(index);
+    }
+
+    public long distance(int index) {
+        return distances[index];
+    }
+
+    public String coordinatesCity(int index) {
+        return coordinatesCities.get(index);
+    }
+
+    public double latitude(int index) {
+        return coordinates.get(index)[0];
+    }
+
+    public double longitude(int index) {
+        return coordinates.get(index)[1];
+    }
+
+    public String profileFirstCity(int index) {
+        return profileFirstCities.get(index);
+    }
+
+    public String profileSecondCity(int index) {
+        return profileSecondCities.get(index);
+    }
+
+    public long profileInterval(int index) {
+        return profileIntervals[index];
+    }
+}
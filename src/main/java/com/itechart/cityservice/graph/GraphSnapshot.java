@@ -0,0 +1,507 @@
+package com.itechart.cityservice.graph;
+
+import java.util.*;
+
+/**
+ * Immutable in-memory graph of cities in compressed sparse row form. Cities are interned to int ids
+ * and edges of the city with id "i" are stored at positions [offsets[i], offsets[i + 1]) of "targets" and "weights".
+ * Every distance is bidirectional, so each of them is stored twice: once for every direction.
+ * Time-of-day profiles of distances are kept aside of the weights, see {@link WeightProfiles},
+ * and {@link #at(int)} gives the graph with distances of some minute of the day.
+ */
+public class GraphSnapshot {
+    public static final GraphSnapshot EMPTY = new Builder().build(0L);
+
+    // Every published snapshot gets a bigger version than the previous one
+    private final long version;
+    // version of the snapshot which has changed cities or distances last time. Everything which is built
+    // from weights (like the distance index or cached paths) stays valid while it's the same.
+    // It's -1 for graphs of some minute of the day, nothing is built from them
+    private final long weightsVersion;
+    // revision of the database which the snapshot reflects, see GraphRevisionRepo
+    private final long revision;
+    private final String[] names;
+    private final Map<String, Integer> ids;
+    private final int[] offsets;
+    private final int[] targets;
+    private final long[] weights;
+    // coordinates of cities in degrees, NaN if they are unknown
+    private final double[] latitudes;
+    private final double[] longitudes;
+    // connectivity follows the structure, so it's shared by snapshots which differ only in weights
+    private final ComponentIndex components;
+    private final WeightProfiles profiles;
+
+    private GraphSnapshot(long version, long weightsVersion, long revision, String[] names, Map<String, Integer> ids,
+                          int[] offsets, int[] targets, long[] weights, double[] latitudes, double[] longitudes,
+                          ComponentIndex components, WeightProfiles profiles) {
+        this.version = version;
+        this.weightsVersion = weightsVersion;
+        this.revision = revision;
+        this.names = names;
+        this.ids = ids;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.components = components;
+        this.profiles = profiles;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public long weightsVersion() {
+        return weightsVersion;
+    }
+
+    // true for graphs of some minute of the day, see at()
+    public boolean isTimed() {
+        return weightsVersion < 0;
+    }
+
+    public long revision() {
+        return revision;
+    }
+
+    // The same graph with another version. Ids of cities of a reloaded graph could differ,
+    // so nothing which was built from the previous weights can be used with it
+    public GraphSnapshot withVersion(long version) {
+        return new GraphSnapshot(version, version, revision, names, ids, offsets, targets, weights, latitudes,
+                longitudes, components, profiles);
+    }
+
+    // empty snapshot which replaces this one
+    public GraphSnapshot cleared(long revision) {
+        return new Builder().build(version + 1, revision);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public int edgeCount() {
+        return targets.length / 2;
+    }
+
+    public ComponentIndex components() {
+        return components;
+    }
+
+    public WeightProfiles profiles() {
+        return profiles;
+    }
+
+    // The same graph with distances of the minute of the day: profiled distances are patched in the copy of weights,
+    // everything else is shared. The result has no profiles, so it's this graph itself if there are none
+    public GraphSnapshot at(int minute) {
+        if (profiles.isEmpty()) {
+            return this;
+        }
+        long[] timedWeights = Arrays.copyOf(weights, weights.length);
+        profiles.intervals().forEach((key, intervals) -> {
+            long distance = WeightProfiles.distanceAt(intervals, minute);
+            if (distance >= 0) {
+                patchWeight(timedWeights, (int) (key >>> 32), (int) (long) key, distance);
+            }
+        });
+        return new GraphSnapshot(version, -1L, revision, names, ids, offsets, targets, timedWeights, latitudes,
+                longitudes, components, WeightProfiles.EMPTY);
+    }
+
+    public boolean contains(String name) {
+        return ids.containsKey(name);
+    }
+
+    // returns -1 if there is no city with such name
+    public int idOf(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String nameOf(int city) {
+        return names[city];
+    }
+
+    public int firstEdge(int city) {
+        return offsets[city];
+    }
+
+    public int lastEdge(int city) {
+        return offsets[city + 1];
+    }
+
+    public int degree(int city) {
+        return offsets[city + 1] - offsets[city];
+    }
+
+    public int target(int edge) {
+        return targets[edge];
+    }
+
+    public long weight(int edge) {
+        return weights[edge];
+    }
+
+    // returns -1 if the cities are not adjacent
+    public long weight(int from, int to) {
+        for (int edge = offsets[from]; edge < offsets[from + 1]; edge++) {
+            if (targets[edge] == to) {
+                return weights[edge];
+            }
+        }
+        return -1;
+    }
+
+    // Returns the next version of snapshot with the changed distances, coordinates and profiles, this snapshot stays
+    // untouched. Ids of the existing cities are preserved. If the delta only changes weights of existing edges,
+    // then the structure arrays are shared, and if it doesn't change distances at all, then weights are shared too
+    // and the weights version stays the same. A cleared delta gives an empty snapshot, an empty delta only moves
+    // the revision. Components of the new snapshot are found by unions of the added distances, see ComponentIndex
+    public GraphSnapshot apply(GraphDelta delta) {
+        if (delta.isEmpty()) {
+            // the revision is taken anyway, so the snapshot moves to it, otherwise the next revisions would wait for it
+            return delta.revision() > revision ? new GraphSnapshot(version + 1, weightsVersion, delta.revision(),
+                    names, ids, offsets, targets, weights, latitudes, longitudes, components, profiles) : this;
+        }
+        long resultRevision = Math.max(revision, delta.revision());
+        if (delta.isCleared()) {
+            return cleared(resultRevision);
+        }
+
+        List<String> addedNames = new ArrayList<>();
+        Map<String, Integer> addedIds = new HashMap<>();
+        long[] patchedWeights = delta.size() == 0 ? weights : Arrays.copyOf(weights, weights.length);
+
+        // distances between cities which were not adjacent before, the key is built from ids of both cities
+        Map<Long, Integer> addedEdgeIndexes = new HashMap<>();
+        int[] addedFrom = new int[delta.size()];
+        int[] addedTo = new int[delta.size()];
+        long[] addedWeights = new long[delta.size()];
+        int addedCount = 0;
+
+        for (int i = 0; i < delta.size(); i++) {
+            int from = resolve(delta.firstCity(i), addedNames, addedIds);
+            int to = resolve(delta.secondCity(i), addedNames, addedIds);
+            long distance = delta.distance(i);
+
+            if (from < names.length && to < names.length && patchWeight(patchedWeights, from, to, distance)) {
+                continue;
+            }
+
+            long key = from < to ? ((long) from << 32) | to : ((long) to << 32) | from;
+            Integer existing = addedEdgeIndexes.get(key);
+            if (existing != null) {
+                addedWeights[existing] = distance;
+            } else {
+                addedFrom[addedCount] = from;
+                addedTo[addedCount] = to;
+                addedWeights[addedCount] = distance;
+                addedEdgeIndexes.put(key, addedCount++);
+            }
+        }
+
+        int cityCount = names.length + addedNames.size();
+        double[] resultLatitudes = latitudes;
+        double[] resultLongitudes = longitudes;
+        if (delta.coordinatesSize() > 0 || !addedNames.isEmpty()) {
+            resultLatitudes = Arrays.copyOf(latitudes, cityCount);
+            resultLongitudes = Arrays.copyOf(longitudes, cityCount);
+            Arrays.fill(resultLatitudes, names.length, cityCount, Double.NaN);
+            Arrays.fill(resultLongitudes, names.length, cityCount, Double.NaN);
+
+            // coordinates of cities which don't have any distances yet are not kept in the graph
+            for (int i = 0; i < delta.coordinatesSize(); i++) {
+                Integer city = ids.get(delta.coordinatesCity(i));
+                if (city == null) {
+                    city = addedIds.get(delta.coordinatesCity(i));
+                }
+                if (city != null) {
+                    resultLatitudes[city] = delta.latitude(i);
+                    resultLongitudes[city] = delta.longitude(i);
+                }
+            }
+        }
+
+        if (addedCount == 0 && addedNames.isEmpty()) {
+            long resultWeightsVersion = delta.size() == 0 ? weightsVersion : version + 1;
+            return new GraphSnapshot(version + 1, resultWeightsVersion, resultRevision, names, ids, offsets, targets,
+                    patchedWeights, resultLatitudes, resultLongitudes, components, appendProfiles(delta, ids));
+        }
+
+        String[] resultNames = Arrays.copyOf(names, cityCount);
+        for (int i = 0; i < addedNames.size(); i++) {
+            resultNames[names.length + i] = addedNames.get(i);
+        }
+        Map<String, Integer> resultIds = new HashMap<>(ids);
+        resultIds.putAll(addedIds);
+
+        // every city keeps its old edges followed by the added ones
+        int[] resultOffsets = new int[cityCount + 1];
+        for (int city = 0; city < names.length; city++) {
+            resultOffsets[city + 1] = degree(city);
+        }
+        for (int i = 0; i < addedCount; i++) {
+            resultOffsets[addedFrom[i] + 1]++;
+            resultOffsets[addedTo[i] + 1]++;
+        }
+        for (int city = 0; city < cityCount; city++) {
+            resultOffsets[city + 1] += resultOffsets[city];
+        }
+
+        int[] resultTargets = new int[resultOffsets[cityCount]];
+        long[] resultWeights = new long[resultOffsets[cityCount]];
+        int[] position = new int[cityCount];
+        for (int city = 0; city < cityCount; city++) {
+            position[city] = resultOffsets[city];
+            if (city < names.length) {
+                System.arraycopy(targets, offsets[city], resultTargets, position[city], degree(city));
+                System.arraycopy(patchedWeights, offsets[city], resultWeights, position[city], degree(city));
+                position[city] += degree(city);
+            }
+        }
+        for (int i = 0; i < addedCount; i++) {
+            int forward = position[addedFrom[i]]++;
+            resultTargets[forward] = addedTo[i];
+            resultWeights[forward] = addedWeights[i];
+
+            int backward = position[addedTo[i]]++;
+            resultTargets[backward] = addedFrom[i];
+            resultWeights[backward] = addedWeights[i];
+        }
+
+        return new GraphSnapshot(version + 1, version + 1, resultRevision, resultNames,
+                Collections.unmodifiableMap(resultIds), resultOffsets, resultTargets, resultWeights, resultLatitudes,
+                resultLongitudes, components.withEdges(cityCount, addedFrom, addedTo, addedCount),
+                appendProfiles(delta, resultIds));
+    }
+
+    // profiles can be set only for existing distances, so all their cities are already known
+    private WeightProfiles appendProfiles(GraphDelta delta, Map<String, Integer> resultIds) {
+        long[] keys = new long[delta.profilesSize()];
+        long[] intervals = new long[delta.profilesSize()];
+        int count = 0;
+        for (int i = 0; i < delta.profilesSize(); i++) {
+            Integer from = resultIds.get(delta.profileFirstCity(i));
+            Integer to = resultIds.get(delta.profileSecondCity(i));
+            if (from != null && to != null) {
+                keys[count] = WeightProfiles.key(from, to);
+                intervals[count++] = delta.profileInterval(i);
+            }
+        }
+        return profiles.append(keys, intervals, count);
+    }
+
+    private int resolve(String name, List<String> addedNames, Map<String, Integer> addedIds) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = addedIds.get(name);
+        }
+        if (id == null) {
+            id = names.length + addedNames.size();
+            addedNames.add(name);
+            addedIds.put(name, id);
+        }
+        return id;
+    }
+
+    // updates both directions of the existing edge. Returns false if the cities are not adjacent
+    private boolean patchWeight(long[] patchedWeights, int from, int to, long distance) {
+        boolean found = false;
+        for (int edge = offsets[from]; edge < offsets[from + 1]; edge++) {
+            if (targets[edge] == to) {
+                patchedWeights[edge] = distance;
+                found = true;
+            }
+        }
+        for (int edge = offsets[to]; edge < offsets[to + 1]; edge++) {
+            if (targets[edge] == from) {
+                patchedWeights[edge] = distance;
+            }
+        }
+        return found;
+    }
+
+    public boolean hasCoordinates(int city) {
+        return !Double.isNaN(latitudes[city]);
+    }
+
+    public double latitude(int city) {
+        return latitudes[city];
+    }
+
+    public double longitude(int city) {
+        return longitudes[city];
+    }
+
+    // raw arrays for GraphSnapshotFile, they must not be changed
+    String[] names() {
+        return names;
+    }
+
+    int[] offsets() {
+        return offsets;
+    }
+
+    int[] targets() {
+        return targets;
+    }
+
+    long[] weights() {
+        return weights;
+    }
+
+    double[] latitudes() {
+        return latitudes;
+    }
+
+    double[] longitudes() {
+        return longitudes;
+    }
+
+    static GraphSnapshot of(long version, long revision, String[] names, int[] offsets, int[] targets, long[] weights,
+                            double[] latitudes, double[] longitudes, WeightProfiles profiles) {
+        Map<String, Integer> ids = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            ids.put(names[i], i);
+        }
+        return new GraphSnapshot(version, version, revision, names, Collections.unmodifiableMap(ids), offsets, targets,
+                weights, latitudes, longitudes, ComponentIndex.of(offsets, targets), profiles);
+    }
+
+    public List<String> namesOf(int[] path, int length) {
+        List<String> result = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            result.add(names[path[i]]);
+        }
+        return result;
+    }
+
+    public static class Builder {
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+        // distances between a pair of cities, the key is built from ids of both cities (the smaller one first)
+        private final Map<Long, Integer> edgeIndexes = new HashMap<>();
+        private final Map<String, double[]> coordinates = new HashMap<>();
+        private final List<String[]> profileCities = new ArrayList<>();
+        private final List<Long> profileIntervals = new ArrayList<>();
+        private int[] edgeFrom = new int[16];
+        private int[] edgeTo = new int[16];
+        private long[] edgeWeight = new long[16];
+        private int edgeCount;
+
+        public Builder addCity(String name) {
+            intern(name);
+            return this;
+        }
+
+        // Coordinates are kept only for cities which have at least one distance
+        public Builder setCoordinates(String name, double latitude, double longitude) {
+            coordinates.put(name, new double[]{latitude, longitude});
+            return this;
+        }
+
+        // If distance between these cities has been already added, then the latest one wins
+        public Builder addDistance(String cityA, String cityB, long distance) {
+            int from = intern(cityA);
+            int to = intern(cityB);
+            long key = from < to ? ((long) from << 32) | to : ((long) to << 32) | from;
+
+            Integer existing = edgeIndexes.get(key);
+            if (existing != null) {
+                edgeWeight[existing] = distance;
+                return this;
+            }
+
+            if (edgeCount == edgeFrom.length) {
+                edgeFrom = Arrays.copyOf(edgeFrom, edgeCount * 2);
+                edgeTo = Arrays.copyOf(edgeTo, edgeCount * 2);
+                edgeWeight = Arrays.copyOf(edgeWeight, edgeCount * 2);
+            }
+            edgeFrom[edgeCount] = from;
+            edgeTo[edgeCount] = to;
+            edgeWeight[edgeCount] = distance;
+            edgeIndexes.put(key, edgeCount++);
+            return this;
+        }
+
+        // The interval is packed by WeightProfiles.pack(), later intervals override the earlier ones.
+        // Profiles are kept only for added distances
+        public Builder addProfile(String cityA, String cityB, long interval) {
+            profileCities.add(new String[]{cityA, cityB});
+            profileIntervals.add(interval);
+            return this;
+        }
+
+        public GraphSnapshot build(long version) {
+            return build(version, 0L);
+        }
+
+        public GraphSnapshot build(long version, long revision) {
+            int cityCount = names.size();
+
+            // counting sort of both directions of every edge by its source city
+            int[] offsets = new int[cityCount + 1];
+            for (int i = 0; i < edgeCount; i++) {
+                offsets[edgeFrom[i] + 1]++;
+                offsets[edgeTo[i] + 1]++;
+            }
+            for (int i = 0; i < cityCount; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+
+            int[] targets = new int[edgeCount * 2];
+            long[] weights = new long[edgeCount * 2];
+            int[] position = Arrays.copyOf(offsets, cityCount);
+            for (int i = 0; i < edgeCount; i++) {
+                int forward = position[edgeFrom[i]]++;
+                targets[forward] = edgeTo[i];
+                weights[forward] = edgeWeight[i];
+
+                int backward = position[edgeTo[i]]++;
+                targets[backward] = edgeFrom[i];
+                weights[backward] = edgeWeight[i];
+            }
+
+            double[] latitudes = new double[cityCount];
+            double[] longitudes = new double[cityCount];
+            for (int city = 0; city < cityCount; city++) {
+                double[] cityCoordinates = coordinates.get(names.get(city));
+                latitudes[city] = cityCoordinates == null ? Double.NaN : cityCoordinates[0];
+                longitudes[city] = cityCoordinates == null ? Double.NaN : cityCoordinates[1];
+            }
+
+            long[] keys = new long[profileIntervals.size()];
+            long[] intervals = new long[profileIntervals.size()];
+            int profileCount = 0;
+            for (int i = 0; i < profileIntervals.size(); i++) {
+                Integer from = ids.get(profileCities.get(i)[0]);
+                Integer to = ids.get(profileCities.get(i)[1]);
+                if (from != null && to != null && edgeIndexes.containsKey(WeightProfiles.key(from, to))) {
+                    keys[profileCount] = WeightProfiles.key(from, to);
+                    intervals[profileCount++] = profileIntervals.get(i);
+                }
+            }
+
+            return new GraphSnapshot(version, version, revision, names.toArray(new String[0]),
+                    Collections.unmodifiableMap(new HashMap<>(ids)), offsets, targets, weights, latitudes, longitudes,
+                    ComponentIndex.of(offsets, targets), WeightProfiles.EMPTY.append(keys, intervals, profileCount));
+        }
+
+        private int intern(String name) {
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = names.size();
+                names.add(name);
+                ids.put(name, id);
+            }
+            return id;
+        }
+    }
+}
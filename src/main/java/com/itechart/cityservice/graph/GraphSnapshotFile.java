@@ -0,0 +1,150 @@
+package com.itechart.cityservice.graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary file with a {@link GraphSnapshot}. The file contains the header (magic number, format, revision, sizes),
+ * names of cities, the CSR arrays, coordinates and weight profiles, followed by CRC32 of everything before it.
+ * Every profile is the key of its pair of cities, the number of its intervals and the packed intervals.
+ * The file is memory-mapped on reading, so the arrays are copied from the page cache in bulk.
+ */
+public class GraphSnapshotFile {
+    private static final int MAGIC = 0x43534753;
+    // files of older formats are rejected, so the graph is loaded from the database instead
+    private static final int FORMAT = 2;
+    // magic, format, revision, number of cities and number of edge slots
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+
+    private GraphSnapshotFile() {
+    }
+
+    // The snapshot is written to a temporary file which then replaces the old one, so readers never see a partial file
+    public static void write(GraphSnapshot graph, Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        CRC32 checksum = new CRC32();
+        try (OutputStream fileStream = Files.newOutputStream(temporary);
+             CheckedOutputStream checkedStream = new CheckedOutputStream(new BufferedOutputStream(fileStream, 1 << 16), checksum);
+             DataOutputStream output = new DataOutputStream(checkedStream)) {
+            String[] names = graph.names();
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT);
+            output.writeLong(graph.revision());
+            output.writeInt(names.length);
+            output.writeInt(graph.targets().length);
+
+            for (String name : names) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            }
+            for (int offset : graph.offsets()) {
+                output.writeInt(offset);
+            }
+            for (int target : graph.targets()) {
+                output.writeInt(target);
+            }
+            for (long weight : graph.weights()) {
+                output.writeLong(weight);
+            }
+            for (double latitude : graph.latitudes()) {
+                output.writeDouble(latitude);
+            }
+            for (double longitude : graph.longitudes()) {
+                output.writeDouble(longitude);
+            }
+            Map<Long, long[]> profiles = graph.profiles().intervals();
+            output.writeInt(profiles.size());
+            for (Map.Entry<Long, long[]> profile : profiles.entrySet()) {
+                output.writeLong(profile.getKey());
+                output.writeInt(profile.getValue().length);
+                for (long interval : profile.getValue()) {
+                    output.writeLong(interval);
+                }
+            }
+
+            output.flush();
+            output.writeLong(checksum.getValue());
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // the loaded snapshot gets the given version, its revision is taken from the file
+    public static GraphSnapshot read(Path file, long version) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + 8) {
+                throw new IOException("graph snapshot file is too short: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            CRC32 checksum = new CRC32();
+            ByteBuffer content = buffer.duplicate();
+            content.limit((int) size - 8);
+            checksum.update(content);
+            if (checksum.getValue() != buffer.getLong((int) size - 8)) {
+                throw new IOException("graph snapshot file is corrupted: " + file);
+            }
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT) {
+                throw new IOException("unknown format of graph snapshot file: " + file);
+            }
+            long revision = buffer.getLong();
+            int cityCount = buffer.getInt();
+            int edgeSlots = buffer.getInt();
+
+            String[] names = new String[cityCount];
+            for (int i = 0; i < cityCount; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                names[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            int[] offsets = new int[cityCount + 1];
+            buffer.asIntBuffer().get(offsets);
+            buffer.position(buffer.position() + offsets.length * Integer.BYTES);
+            int[] targets = new int[edgeSlots];
+            buffer.asIntBuffer().get(targets);
+            buffer.position(buffer.position() + targets.length * Integer.BYTES);
+            long[] weights = new long[edgeSlots];
+            buffer.asLongBuffer().get(weights);
+            buffer.position(buffer.position() + weights.length * Long.BYTES);
+            double[] latitudes = new double[cityCount];
+            buffer.asDoubleBuffer().get(latitudes);
+            buffer.position(buffer.position() + latitudes.length * Double.BYTES);
+            double[] longitudes = new double[cityCount];
+            buffer.asDoubleBuffer().get(longitudes);
+            buffer.position(buffer.position() + longitudes.length * Double.BYTES);
+
+            int profileCount = buffer.getInt();
+            Map<Long, long[]> profiles = new HashMap<>(profileCount * 2);
+            for (int i = 0; i < profileCount; i++) {
+                long key = buffer.getLong();
+                long[] intervals = new long[buffer.getInt()];
+                buffer.asLongBuffer().get(intervals);
+                buffer.position(buffer.position() + intervals.length * Long.BYTES);
+                profiles.put(key, intervals);
+            }
+
+            return GraphSnapshot.of(version, revision, names, offsets, targets, weights, latitudes, longitudes,
+                    WeightProfiles.of(profiles));
+        }
+    }
+}
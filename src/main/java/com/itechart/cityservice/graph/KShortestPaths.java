@@ -0,0 +1,194 @@
+package com.itechart.cityservice.graph;
+
+import com.itechart.cityservice.dto.PathResponse;
+
+import java.util.*;
+
+/**
+ * Lazy Yen's k-shortest simple paths. Every call of {@link #next()} returns the next path in ascending order of
+ * distance, so callers decide how many paths they need and the full path set is never built.
+ */
+public class KShortestPaths implements Iterator<PathResponse> {
+    private final GraphSnapshot graph;
+    private final int startCity;
+    private final int destinationCity;
+    private final long maxDistance;
+
+    // paths which have been already returned to the caller (A in Yen's notation)
+    private final List<Path> foundPaths = new ArrayList<>();
+    // candidates for the next shortest path (B in Yen's notation)
+    private final PriorityQueue<Path> candidates = new PriorityQueue<>();
+    private final Set<Path> knownPaths = new HashSet<>();
+
+    // state of the spur searches, it's reused between them to avoid allocations proportional to the graph size.
+    // "distances" and "previousCities" are valid only for cities whose "stamps" equal to the current "generation"
+    private final long[] distances;
+    private final int[] previousCities;
+    private final int[] stamps;
+    private final boolean[] removedCities;
+    private final BitSet removedTargets = new BitSet();
+    private final NodeHeap heap;
+    private int generation;
+    // cities which were taken from the heap by all spur searches so far
+    private long expandedCities;
+
+    private Path nextPath;
+    private boolean exhausted;
+
+    public KShortestPaths(GraphSnapshot graph, int startCity, int destinationCity, Long maxDistance) {
+        this.graph = graph;
+        this.startCity = startCity;
+        this.destinationCity = destinationCity;
+        this.maxDistance = maxDistance == null ? Long.MAX_VALUE : maxDistance;
+
+        this.distances = new long[graph.size()];
+        this.previousCities = new int[graph.size()];
+        this.stamps = new int[graph.size()];
+        this.removedCities = new boolean[graph.size()];
+        this.heap = new NodeHeap(graph.size());
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextPath == null && !exhausted) {
+            nextPath = computeNext();
+            exhausted = nextPath == null;
+        }
+        return nextPath != null;
+    }
+
+    @Override
+    public PathResponse next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Path path = nextPath;
+        nextPath = null;
+        foundPaths.add(path);
+        return new PathResponse(graph.namesOf(path.cities, path.cities.length), path.distance);
+    }
+
+    public long expandedCities() {
+        return expandedCities;
+    }
+
+    private Path computeNext() {
+        if (foundPaths.isEmpty()) {
+            return shortestPath(startCity, 0L);
+        }
+
+        Path previous = foundPaths.get(foundPaths.size() - 1);
+        long rootDistance = 0L;
+        for (int i = 0; i < previous.cities.length - 1; i++) {
+            int spurCity = previous.cities[i];
+
+            // edges which would lead us to the already found paths with the same root.
+            // All of them start at the spur city, so it's enough to remember their targets
+            removedTargets.clear();
+            for (Path path : foundPaths) {
+                if (path.cities.length > i + 1 && path.hasRoot(previous, i + 1)) {
+                    removedTargets.set(path.cities[i + 1]);
+                }
+            }
+            // the path has to stay simple, so the root cities can't be visited again
+            for (int j = 0; j < i; j++) {
+                removedCities[previous.cities[j]] = true;
+            }
+
+            Path spurPath = shortestPath(spurCity, rootDistance);
+            if (spurPath != null) {
+                int[] totalCities = new int[i + spurPath.cities.length];
+                System.arraycopy(previous.cities, 0, totalCities, 0, i);
+                System.arraycopy(spurPath.cities, 0, totalCities, i, spurPath.cities.length);
+
+                Path candidate = new Path(totalCities, spurPath.distance);
+                if (knownPaths.add(candidate)) {
+                    candidates.add(candidate);
+                }
+            }
+
+            for (int j = 0; j < i; j++) {
+                removedCities[previous.cities[j]] = false;
+            }
+            rootDistance += graph.weight(spurCity, previous.cities[i + 1]);
+        }
+        removedTargets.clear();
+
+        return candidates.poll();
+    }
+
+    // Dijkstra from "source" to the destination city. Returned distance includes "initialDistance",
+    // so that branches longer than maxDistance can be cut as early as possible.
+    private Path shortestPath(int source, long initialDistance) {
+        generation++;
+        heap.clear();
+
+        stamps[source] = generation;
+        distances[source] = initialDistance;
+        previousCities[source] = -1;
+        heap.push(source, initialDistance);
+
+        while (!heap.isEmpty()) {
+            int currentCity = heap.poll();
+            long currentDistance = distances[currentCity];
+            expandedCities++;
+
+            if (currentCity == destinationCity) {
+                int length = 0;
+                for (int city = currentCity; city != -1; city = previousCities[city]) {
+                    length++;
+                }
+                int[] cities = new int[length];
+                for (int city = currentCity; city != -1; city = previousCities[city]) {
+                    cities[--length] = city;
+                }
+                return new Path(cities, currentDistance);
+            }
+
+            for (int edge = graph.firstEdge(currentCity); edge < graph.lastEdge(currentCity); edge++) {
+                int nextCity = graph.target(edge);
+                if (removedCities[nextCity] || (currentCity == source && removedTargets.get(nextCity))) {
+                    continue;
+                }
+
+                long nextDistance = currentDistance + graph.weight(edge);
+                if (nextDistance <= maxDistance && (stamps[nextCity] != generation || nextDistance < distances[nextCity])) {
+                    stamps[nextCity] = generation;
+                    distances[nextCity] = nextDistance;
+                    previousCities[nextCity] = currentCity;
+                    heap.push(nextCity, nextDistance);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static class Path implements Comparable<Path> {
+        private final int[] cities;
+        private final long distance;
+
+        Path(int[] cities, long distance) {
+            this.cities = cities;
+            this.distance = distance;
+        }
+
+        boolean hasRoot(Path other, int length) {
+            return Arrays.equals(cities, 0, length, other.cities, 0, length);
+        }
+
+        @Override public int compareTo(Path o) {
+            int result = Long.compare(distance, o.distance);
+            return result != 0 ? result : Integer.compare(cities.length, o.cities.length);
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return Arrays.equals(cities, ((Path) o).cities);
+        }
+
+        @Override public int hashCode() {
+            return Arrays.hashCode(cities);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.itechart.cityservice.graph;
+
+import java.util.Arrays;
+
+/**
+ * Indexed binary min-heap of city ids keyed by long distances. It supports decrease-key, so every city is
+ * stored at most once and no boxed entries are allocated while searching.
+ */
+public class NodeHeap {
+    private final int[] heap;
+    // position of the city in "heap" or -1 if the city is not in the heap
+    private final int[] positions;
+    private final long[] keys;
+    private int size;
+
+    public NodeHeap(int capacity) {
+        this.heap = new int[capacity];
+        this.positions = new int[capacity];
+        this.keys = new long[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int city) {
+        return positions[city] >= 0;
+    }
+
+    public long peekKey() {
+        return keys[heap[0]];
+    }
+
+    // adds the city or decreases its key. Nothing happens if the city is already in the heap with a smaller key
+    public void push(int city, long key) {
+        int position = positions[city];
+        if (position < 0) {
+            position = size++;
+            heap[position] = city;
+            positions[city] = position;
+        } else if (keys[city] <= key) {
+            return;
+        }
+        keys[city] = key;
+        siftUp(position);
+    }
+
+    public int poll() {
+        int result = heap[0];
+        positions[result] = -1;
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            positions[heap[0]] = 0;
+            siftDown(0);
+        }
+        return result;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int position) {
+        int city = heap[position];
+        long key = keys[city];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (keys[heap[parent]] <= key) {
+                break;
+            }
+            heap[position] = heap[parent];
+            positions[heap[position]] = position;
+            position = parent;
+        }
+        heap[position] = city;
+        positions[city] = position;
+    }
+
+    private void siftDown(int position) {
+        int city = heap[position];
+        long key = keys[city];
+        int half = size >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]]) {
+                child++;
+            }
+            if (key <= keys[heap[child]]) {
+                break;
+            }
+            heap[position] = heap[child];
+            positions[heap[position]] = position;
+            position = child;
+        }
+        heap[position] = city;
+        positions[city] = position;
+    }
+}
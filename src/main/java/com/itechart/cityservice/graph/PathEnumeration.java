@@ -0,0 +1,248 @@
+package com.itechart.cityservice.graph;
+
+import com.itechart.cityservice.dto.PathResponse;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exhaustive depth-first enumeration of all simple paths between two cities. Subtrees of the first cities
+ * of paths are searched in parallel by a fork-join pool.
+ * The search is bounded by a deadline and by the number of paths. When any of them is reached, all tasks stop
+ * and the paths which have been found so far are returned as a truncated result.
+ * <p>
+ * If only the k shortest paths or paths not longer than the maximum distance are needed, then the shortest
+ * distances to the destination are precomputed. They are lower bounds of the rest of any path, so a branch
+ * which can't end within the maximum distance or shorter than the k-th best path found so far is cut.
+ * The most promising adjacent city is visited first, so good paths are found early and the bound tightens fast.
+ */
+public class PathEnumeration {
+    // subtrees up to this depth are split into separate tasks while the pool has not enough queued tasks,
+    // deeper ones are searched by the same task
+    private static final int SPLIT_DEPTH = 3;
+    private static final int MAX_SURPLUS_TASKS = 3;
+    // the deadline is checked once per this number of visited cities, because reading the clock isn't free
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+    private final GraphSnapshot graph;
+    private final int destinationCity;
+    private final int maxPaths;
+    private final long deadline;
+    // Integer.MAX_VALUE if all paths are needed
+    private final int k;
+    // shortest distances to the destination, null if nothing is cut
+    private final long[] lowerBounds;
+
+    private final Queue<PathResponse> foundPaths = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger foundCount = new AtomicInteger();
+    // the k shortest paths found so far, the longest one on the top. It's also the lock of "bound"
+    private final PriorityQueue<PathResponse> bestPaths =
+            new PriorityQueue<>(Comparator.comparing(PathResponse::getDistance).reversed());
+    // the longest distance of a path which is still needed
+    private volatile long bound;
+    private final AtomicLong expandedCities = new AtomicLong();
+    private volatile boolean truncated;
+
+    public PathEnumeration(GraphSnapshot graph, int destinationCity, int maxPaths, long timeoutMillis) {
+        this(graph, destinationCity, maxPaths, timeoutMillis, null, null);
+    }
+
+    // "k" and "maxDistance" are optional, only the k shortest paths which are not longer than the distance are found
+    public PathEnumeration(GraphSnapshot graph, int destinationCity, int maxPaths, long timeoutMillis,
+                           Integer k, Long maxDistance) {
+        this.graph = graph;
+        this.destinationCity = destinationCity;
+        this.maxPaths = maxPaths;
+        this.deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        this.k = k == null ? Integer.MAX_VALUE : k;
+        this.bound = maxDistance == null ? Long.MAX_VALUE : maxDistance;
+
+        // distances are bidirectional, so the tree from the destination gives distances to it
+        if (k != null || maxDistance != null) {
+            ShortestPathTree tree = ShortestPathTree.within(graph, destinationCity, bound);
+            this.lowerBounds = new long[graph.size()];
+            for (int city = 0; city < graph.size(); city++) {
+                lowerBounds[city] = tree.distance(city);
+            }
+            expandedCities.addAndGet(tree.expandedCities());
+        } else {
+            this.lowerBounds = null;
+        }
+    }
+
+    // returns paths in no particular order
+    public List<PathResponse> findPaths(int startCity, ForkJoinPool pool) {
+        int[] path = new int[graph.size()];
+        path[0] = startCity;
+        pool.invoke(new SubtreeTask(path, 1, new long[(graph.size() + 63) >>> 6], 0L));
+        if (k == Integer.MAX_VALUE) {
+            return new ArrayList<>(foundPaths);
+        }
+        synchronized (bestPaths) {
+            return new ArrayList<>(bestPaths);
+        }
+    }
+
+    // true if the search was stopped by the deadline or by the number of paths
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public long expandedCities() {
+        return expandedCities.get();
+    }
+
+    // true if no path through the city can be short enough
+    private boolean isCut(int city, long distance) {
+        if (lowerBounds == null) {
+            return false;
+        }
+        long lowerBound = lowerBounds[city];
+        return lowerBound == ShortestPathTree.UNREACHABLE || distance + lowerBound > bound;
+    }
+
+    private void addPath(int[] path, int length, long distance) {
+        if (k == Integer.MAX_VALUE) {
+            if (foundCount.incrementAndGet() > maxPaths) {
+                truncated = true;
+                return;
+            }
+            foundPaths.add(new PathResponse(graph.namesOf(path, length), distance));
+            return;
+        }
+
+        synchronized (bestPaths) {
+            // the bound could be tightened after this path passed the last check
+            if (distance > bound) {
+                return;
+            }
+            bestPaths.add(new PathResponse(graph.namesOf(path, length), distance));
+            if (bestPaths.size() > k) {
+                bestPaths.poll();
+            }
+            // distances are integers, so only paths shorter than the k-th one are needed from now on
+            if (bestPaths.size() == k) {
+                bound = Math.min(bound, bestPaths.peek().getDistance() - 1);
+            }
+        }
+    }
+
+    private static boolean isVisited(long[] visited, int city) {
+        return (visited[city >>> 6] & (1L << city)) != 0;
+    }
+
+    private static void setVisited(long[] visited, int city, boolean value) {
+        if (value) {
+            visited[city >>> 6] |= 1L << city;
+        } else {
+            visited[city >>> 6] &= ~(1L << city);
+        }
+    }
+
+    private class SubtreeTask extends RecursiveAction {
+        // the path from the start city to the root of the subtree, the task owns it and "visited"
+        private final int[] currentPath;
+        private final long[] visited;
+        private final long rootDistance;
+        private int depth;
+        private int visitedCount;
+
+        SubtreeTask(int[] currentPath, int depth, long[] visited, long rootDistance) {
+            this.currentPath = currentPath;
+            this.depth = depth;
+            this.visited = visited;
+            this.rootDistance = rootDistance;
+        }
+
+        @Override
+        protected void compute() {
+            int rootCity = currentPath[depth - 1];
+            if (truncated || isCut(rootCity, rootDistance)) {
+                return;
+            }
+
+            if (depth > SPLIT_DEPTH || rootCity == destinationCity || getSurplusQueuedTaskCount() > MAX_SURPLUS_TASKS) {
+                depth--;
+                visit(rootCity, rootDistance);
+                expandedCities.addAndGet(visitedCount);
+                return;
+            }
+
+            setVisited(visited, rootCity, true);
+            expandedCities.incrementAndGet();
+            List<SubtreeTask> subtrees = new ArrayList<>(graph.degree(rootCity));
+            for (int edge = graph.firstEdge(rootCity); edge < graph.lastEdge(rootCity); edge++) {
+                int adjacentCity = graph.target(edge);
+                if (!isVisited(visited, adjacentCity)) {
+                    int[] path = currentPath.clone();
+                    path[depth] = adjacentCity;
+                    subtrees.add(new SubtreeTask(path, depth + 1, visited.clone(), rootDistance + graph.weight(edge)));
+                }
+            }
+            invokeAll(subtrees);
+        }
+
+        private void visit(int currentCity, long currentDistance) {
+            if (truncated || (++visitedCount % DEADLINE_CHECK_INTERVAL == 0 && isExpired())
+                    || isCut(currentCity, currentDistance)) {
+                return;
+            }
+
+            currentPath[depth++] = currentCity;
+
+            // a simple path can't come back to the destination, so there is no reason to go any further
+            if (currentCity == destinationCity) {
+                addPath(currentPath, depth, currentDistance);
+                depth--;
+                return;
+            }
+
+            setVisited(visited, currentCity, true);
+
+            int firstEdge = lowerBounds == null ? -1 : mostPromisingEdge(currentCity);
+            if (firstEdge >= 0) {
+                visit(graph.target(firstEdge), currentDistance + graph.weight(firstEdge));
+            }
+            for (int edge = graph.firstEdge(currentCity); edge < graph.lastEdge(currentCity); edge++) {
+                int adjacentCity = graph.target(edge);
+                if (edge != firstEdge && !isVisited(visited, adjacentCity)) {
+                    visit(adjacentCity, currentDistance + graph.weight(edge));
+                }
+            }
+
+            setVisited(visited, currentCity, false);
+            depth--;
+        }
+
+        // the edge to the unvisited city with the shortest way to the destination, -1 if there is none
+        private int mostPromisingEdge(int city) {
+            int bestEdge = -1;
+            long bestDistance = ShortestPathTree.UNREACHABLE;
+            for (int edge = graph.firstEdge(city); edge < graph.lastEdge(city); edge++) {
+                int adjacentCity = graph.target(edge);
+                long lowerBound = lowerBounds[adjacentCity];
+                if (lowerBound != ShortestPathTree.UNREACHABLE && !isVisited(visited, adjacentCity)
+                        && graph.weight(edge) + lowerBound < bestDistance) {
+                    bestDistance = graph.weight(edge) + lowerBound;
+                    bestEdge = edge;
+                }
+            }
+            return bestEdge;
+        }
+
+        private boolean isExpired() {
+            if (System.nanoTime() - deadline >= 0) {
+                truncated = true;
+            }
+            return truncated;
+        }
+    }
+}
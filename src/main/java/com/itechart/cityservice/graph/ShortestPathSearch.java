@@ -0,0 +1,178 @@
+package com.itechart.cityservice.graph;
+
+import com.itechart.cityservice.dto.PathResponse;
+
+/**
+ * Single shortest path between two cities. Bidirectional Dijkstra runs a search from both ends at once
+ * and stops when the searches meet, A* runs one search which is directed to the destination by coordinates of cities.
+ * Both of them return null if there is no path.
+ */
+public class ShortestPathSearch {
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    private final GraphSnapshot graph;
+
+    // state of the forward (index 0) and the backward (index 1) searches.
+    // "distances" and "previousCities" are valid only for cities whose "stamps" equal to the current "generation"
+    private final long[][] distances;
+    private final int[][] previousCities;
+    private final int[][] stamps;
+    private final boolean[][] settled;
+    private final NodeHeap[] heaps;
+    private int generation;
+    // cities which were taken from the heaps by the last search
+    private long expandedCities;
+
+    public ShortestPathSearch(GraphSnapshot graph) {
+        this.graph = graph;
+        int size = graph.size();
+        this.distances = new long[][]{new long[size], new long[size]};
+        this.previousCities = new int[][]{new int[size], new int[size]};
+        this.stamps = new int[][]{new int[size], new int[size]};
+        this.settled = new boolean[][]{new boolean[size], new boolean[size]};
+        this.heaps = new NodeHeap[]{new NodeHeap(size), new NodeHeap(size)};
+    }
+
+    public PathResponse bidirectional(int startCity, int destinationCity) {
+        reset();
+        reach(0, startCity, -1, 0L, 0L);
+        if (startCity == destinationCity) {
+            return path(startCity, -1, 0L);
+        }
+        reach(1, destinationCity, -1, 0L, 0L);
+
+        long bestDistance = Long.MAX_VALUE;
+        int meetingCity = -1;
+        while (!heaps[0].isEmpty() && !heaps[1].isEmpty()) {
+            // nothing shorter than the best path can be found anymore
+            if (heaps[0].peekKey() + heaps[1].peekKey() >= bestDistance) {
+                break;
+            }
+
+            // the smaller frontier is expanded, so both searches grow evenly
+            int side = heaps[0].size() <= heaps[1].size() ? 0 : 1;
+            int other = 1 - side;
+            int currentCity = heaps[side].poll();
+            settled[side][currentCity] = true;
+            expandedCities++;
+            long currentDistance = distances[side][currentCity];
+
+            for (int edge = graph.firstEdge(currentCity); edge < graph.lastEdge(currentCity); edge++) {
+                int nextCity = graph.target(edge);
+                long nextDistance = currentDistance + graph.weight(edge);
+                if (isReached(side, nextCity) && (settled[side][nextCity] || distances[side][nextCity] <= nextDistance)) {
+                    continue;
+                }
+                reach(side, nextCity, currentCity, nextDistance, nextDistance);
+
+                if (isReached(other, nextCity) && nextDistance + distances[other][nextCity] < bestDistance) {
+                    bestDistance = nextDistance + distances[other][nextCity];
+                    meetingCity = nextCity;
+                }
+            }
+        }
+
+        return meetingCity < 0 ? null : path(meetingCity, meetingCity, bestDistance);
+    }
+
+    // "distancePerKm" converts the great-circle distance between cities to units of distances in the graph.
+    // The result is the shortest path only if no distance in the graph is shorter than the great-circle distance
+    // multiplied by "distancePerKm". Cities without coordinates are just not directed to the destination.
+    public PathResponse aStar(int startCity, int destinationCity, double distancePerKm) {
+        reset();
+        boolean directed = graph.hasCoordinates(destinationCity);
+
+        reach(0, startCity, -1, 0L, 0L);
+        while (!heaps[0].isEmpty()) {
+            int currentCity = heaps[0].poll();
+            expandedCities++;
+            if (currentCity == destinationCity) {
+                return path(currentCity, -1, distances[0][currentCity]);
+            }
+
+            long currentDistance = distances[0][currentCity];
+            for (int edge = graph.firstEdge(currentCity); edge < graph.lastEdge(currentCity); edge++) {
+                int nextCity = graph.target(edge);
+                long nextDistance = currentDistance + graph.weight(edge);
+                if (isReached(0, nextCity) && distances[0][nextCity] <= nextDistance) {
+                    continue;
+                }
+                long estimate = directed ? estimate(nextCity, destinationCity, distancePerKm) : 0L;
+                reach(0, nextCity, currentCity, nextDistance, nextDistance + estimate);
+            }
+        }
+        return null;
+    }
+
+    public long expandedCities() {
+        return expandedCities;
+    }
+
+    private long estimate(int city, int destinationCity, double distancePerKm) {
+        if (!graph.hasCoordinates(city)) {
+            return 0L;
+        }
+
+        // haversine formula, the estimate is rounded down, so it never exceeds the real distance
+        double latitudeA = Math.toRadians(graph.latitude(city));
+        double latitudeB = Math.toRadians(graph.latitude(destinationCity));
+        double sinLatitude = Math.sin((latitudeB - latitudeA) / 2);
+        double sinLongitude = Math.sin(Math.toRadians(graph.longitude(destinationCity) - graph.longitude(city)) / 2);
+        double a = sinLatitude * sinLatitude + Math.cos(latitudeA) * Math.cos(latitudeB) * sinLongitude * sinLongitude;
+        double kilometers = 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(a)));
+        return (long) Math.floor(kilometers * distancePerKm);
+    }
+
+    private void reset() {
+        generation++;
+        expandedCities = 0;
+        heaps[0].clear();
+        heaps[1].clear();
+    }
+
+    private boolean isReached(int side, int city) {
+        return stamps[side][city] == generation;
+    }
+
+    private void reach(int side, int city, int previousCity, long distance, long key) {
+        if (!isReached(side, city)) {
+            stamps[side][city] = generation;
+            settled[side][city] = false;
+        }
+        distances[side][city] = distance;
+        previousCities[side][city] = previousCity;
+        heaps[side].push(city, key);
+    }
+
+    // the path goes from the start to "forwardCity" by the forward search
+    // and then from "backwardCity" to the destination by the backward one
+    private PathResponse path(int forwardCity, int backwardCity, long distance) {
+        int length = 0;
+        for (int city = forwardCity; city != -1; city = previousCities[0][city]) {
+            length++;
+        }
+        int backwardStart = backwardCity < 0 ? -1 : previousCities[1][backwardCity];
+        for (int city = backwardStart; city != -1; city = previousCities[1][city]) {
+            length++;
+        }
+
+        int[] cities = new int[length];
+        int position = 0;
+        for (int city = forwardCity; city != -1; city = previousCities[0][city]) {
+            cities[position++] = city;
+        }
+        reverse(cities, position);
+        for (int city = backwardStart; city != -1; city = previousCities[1][city]) {
+            cities[position++] = city;
+        }
+        return new PathResponse(graph.namesOf(cities, length), distance);
+    }
+
+    private static void reverse(int[] cities, int length) {
+        for (int i = 0, j = length - 1; i < j; i++, j--) {
+            int city = cities[i];
+            cities[i] = cities[j];
+            cities[j] = city;
+        }
+    }
+}
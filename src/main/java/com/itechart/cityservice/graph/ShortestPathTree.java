@@ -0,0 +1,110 @@
+package com.itechart.cityservice.graph;
+
+import com.itechart.cityservice.dto.PathResponse;
+
+import java.util.Arrays;
+
+/**
+ * Shortest paths from one city to many others. Dijkstra runs from the source city only until all target cities
+ * are settled, so one search answers all requests which start in the same city.
+ * Distances and paths are known only for the target cities. Targets in other components than the source city
+ * are unreachable, so they are skipped right away instead of making the search exhaust the whole component.
+ * A tree can also be searched up to some distance, then all cities within it are known.
+ */
+public class ShortestPathTree {
+    public static final long UNREACHABLE = Long.MAX_VALUE;
+
+    private final GraphSnapshot graph;
+    private final long[] distances;
+    private final int[] previousCities;
+    private long expandedCities;
+
+    private ShortestPathTree(GraphSnapshot graph) {
+        this.graph = graph;
+        this.distances = new long[graph.size()];
+        this.previousCities = new int[graph.size()];
+        Arrays.fill(distances, UNREACHABLE);
+        Arrays.fill(previousCities, -1);
+    }
+
+    public static ShortestPathTree search(GraphSnapshot graph, int sourceCity, int[] targetCities) {
+        ShortestPathTree tree = new ShortestPathTree(graph);
+        tree.settle(sourceCity, targetCities, Long.MAX_VALUE);
+        return tree;
+    }
+
+    // Every city which is not further than "maxDistance" gets its exact distance. Distances of the other cities
+    // are either UNREACHABLE or bigger than "maxDistance" too, so they are still lower bounds beyond it
+    public static ShortestPathTree within(GraphSnapshot graph, int sourceCity, long maxDistance) {
+        ShortestPathTree tree = new ShortestPathTree(graph);
+        tree.settle(sourceCity, null, maxDistance);
+        return tree;
+    }
+
+    // returns UNREACHABLE if there is no path to the city
+    public long distance(int city) {
+        return distances[city];
+    }
+
+    // returns null if there is no path to the city
+    public PathResponse path(int city) {
+        if (distances[city] == UNREACHABLE) {
+            return null;
+        }
+
+        int length = 0;
+        for (int current = city; current != -1; current = previousCities[current]) {
+            length++;
+        }
+        int[] cities = new int[length];
+        int position = length;
+        for (int current = city; current != -1; current = previousCities[current]) {
+            cities[--position] = current;
+        }
+        return new PathResponse(graph.namesOf(cities, length), distances[city]);
+    }
+
+    public long expandedCities() {
+        return expandedCities;
+    }
+
+    // without target cities the search goes on up to "maxDistance"
+    private void settle(int sourceCity, int[] targetCities, long maxDistance) {
+        boolean[] pending = new boolean[graph.size()];
+        int pendingCount = targetCities == null ? 1 : 0;
+        if (targetCities != null) {
+            ComponentIndex components = graph.components();
+            for (int city : targetCities) {
+                if (!pending[city] && components.isConnected(sourceCity, city)) {
+                    pending[city] = true;
+                    pendingCount++;
+                }
+            }
+        }
+
+        NodeHeap heap = new NodeHeap(graph.size());
+        distances[sourceCity] = 0L;
+        heap.push(sourceCity, 0L);
+
+        // a target which is never settled is never reached either, so its distance stays UNREACHABLE
+        while (!heap.isEmpty() && pendingCount > 0 && heap.peekKey() <= maxDistance) {
+            int currentCity = heap.poll();
+            expandedCities++;
+            if (pending[currentCity]) {
+                pending[currentCity] = false;
+                pendingCount--;
+            }
+
+            long currentDistance = distances[currentCity];
+            for (int edge = graph.firstEdge(currentCity); edge < graph.lastEdge(currentCity); edge++) {
+                int nextCity = graph.target(edge);
+                long nextDistance = currentDistance + graph.weight(edge);
+                if (nextDistance < distances[nextCity]) {
+                    distances[nextCity] = nextDistance;
+                    previousCities[nextCity] = currentCity;
+                    heap.push(nextCity, nextDistance);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.itechart.cityservice.graph;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Time-of-day profiles of distances of a {@link GraphSnapshot}. A profile is a list of intervals of the day
+ * with their own distances, the intervals repeat every day. A later interval overrides the earlier ones where they
+ * overlap, and the distance itself applies outside of all intervals. Every interval is packed into one long:
+ * its first minute, its end minute and its distance. Profiles are immutable, an append copies only the map
+ * and the changed lists, so weights of the snapshot stay untouched.
+ * Minutes where intervals start or end split the day into slots, and no distance changes within a slot.
+ */
+public class WeightProfiles {
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    // the largest distance which fits into a packed interval
+    public static final long MAX_DISTANCE = (1L << 42) - 1;
+    public static final WeightProfiles EMPTY = new WeightProfiles(Collections.emptyMap());
+
+    private static final int MINUTE_BITS = 11;
+    private static final int DISTANCE_BITS = 42;
+    private static final int MINUTE_MASK = (1 << MINUTE_BITS) - 1;
+
+    // intervals of every profiled pair of cities in the order of appending, the key is built from ids
+    // of both cities (the smaller one first)
+    private final Map<Long, long[]> intervals;
+    // minutes where some interval starts or ends, sorted
+    private final int[] breakpoints;
+
+    private WeightProfiles(Map<Long, long[]> intervals) {
+        this.intervals = intervals;
+        boolean[] breaks = new boolean[MINUTES_PER_DAY];
+        for (long[] pairIntervals : intervals.values()) {
+            for (long interval : pairIntervals) {
+                breaks[from(interval)] = true;
+                breaks[to(interval)] = true;
+            }
+        }
+        int count = 0;
+        int[] minutes = new int[MINUTES_PER_DAY];
+        for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+            if (breaks[minute]) {
+                minutes[count++] = minute;
+            }
+        }
+        this.breakpoints = Arrays.copyOf(minutes, count);
+    }
+
+    public static long key(int cityA, int cityB) {
+        return cityA < cityB ? ((long) cityA << 32) | cityB : ((long) cityB << 32) | cityA;
+    }
+
+    // The interval starts at the "from" minute of the day and ends before the "to" one. If "to" is before "from",
+    // then it goes over midnight, and if they are equal, then it takes the whole day
+    public static long pack(int from, int to, long distance) {
+        return ((long) from << (MINUTE_BITS + DISTANCE_BITS)) | ((long) to << DISTANCE_BITS) | distance;
+    }
+
+    public static int from(long interval) {
+        return (int) (interval >>> (MINUTE_BITS + DISTANCE_BITS)) & MINUTE_MASK;
+    }
+
+    public static int to(long interval) {
+        return (int) (interval >>> DISTANCE_BITS) & MINUTE_MASK;
+    }
+
+    public static long distance(long interval) {
+        return interval & MAX_DISTANCE;
+    }
+
+    private static int length(long interval) {
+        int length = Math.floorMod(to(interval) - from(interval), MINUTES_PER_DAY);
+        return length == 0 ? MINUTES_PER_DAY : length;
+    }
+
+    private static boolean contains(long interval, int minute) {
+        return Math.floorMod(minute - from(interval), MINUTES_PER_DAY) < length(interval);
+    }
+
+    // true if every minute of the inner interval is in the outer one
+    private static boolean covers(long outer, long inner) {
+        return Math.floorMod(from(inner) - from(outer), MINUTES_PER_DAY) + length(inner) <= length(outer);
+    }
+
+    public boolean isEmpty() {
+        return intervals.isEmpty();
+    }
+
+    // number of profiled pairs of cities
+    public int size() {
+        return intervals.size();
+    }
+
+    // Slot of the minute of the day. Distances of all minutes of the same slot are the same,
+    // the slot before the first breakpoint and the one after the last breakpoint are the same slot
+    public int slotOf(int minute) {
+        int index = Arrays.binarySearch(breakpoints, minute);
+        int slot = index >= 0 ? index + 1 : -index - 1;
+        return slot == breakpoints.length ? 0 : slot;
+    }
+
+    // distance between two cities at the minute of the day, -1 if no interval of their profile covers it
+    public long distanceAt(int cityA, int cityB, int minute) {
+        long[] pairIntervals = intervals.get(key(cityA, cityB));
+        return pairIntervals == null ? -1 : distanceAt(pairIntervals, minute);
+    }
+
+    static long distanceAt(long[] pairIntervals, int minute) {
+        // the latest interval wins, so they are checked from the end
+        for (int i = pairIntervals.length - 1; i >= 0; i--) {
+            if (contains(pairIntervals[i], minute)) {
+                return distance(pairIntervals[i]);
+            }
+        }
+        return -1;
+    }
+
+    // Returns the profiles with the first "count" intervals appended, "keys" tell their pairs of cities.
+    // Earlier intervals which are covered by the appended ones can't be seen anymore, so they are dropped,
+    // and profiles don't grow when the same interval is updated again and again
+    public WeightProfiles append(long[] keys, long[] appended, int count) {
+        if (count == 0) {
+            return this;
+        }
+        Map<Long, long[]> result = new HashMap<>(intervals);
+        for (int i = 0; i < count; i++) {
+            long[] pairIntervals = result.getOrDefault(keys[i], new long[0]);
+            long[] kept = new long[pairIntervals.length + 1];
+            int keptCount = 0;
+            for (long interval : pairIntervals) {
+                if (!covers(appended[i], interval)) {
+                    kept[keptCount++] = interval;
+                }
+            }
+            kept[keptCount++] = appended[i];
+            result.put(keys[i], Arrays.copyOf(kept, keptCount));
+        }
+        return new WeightProfiles(Collections.unmodifiableMap(result));
+    }
+
+    // raw intervals for GraphSnapshotFile, they must not be changed
+    Map<Long, long[]> intervals() {
+        return intervals;
+    }
+
+    static WeightProfiles of(Map<Long, long[]> intervals) {
+        return intervals.isEmpty() ? EMPTY : new WeightProfiles(Collections.unmodifiableMap(intervals));
+    }
+}
@@ -0,0 +1,10 @@
+package com.itechart.cityservice.repo;
+
+// Read-only row of city coordinates, it's not managed by the persistence context
+public interface CityCoordinatesView {
+    String getName();
+
+    Double getLatitude();
+
+    Double getLongitude();
+}
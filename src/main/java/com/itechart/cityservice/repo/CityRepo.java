@@ -2,9 +2,23 @@ package com.itechart.cityservice.repo;
 
 import com.itechart.cityservice.domain.City;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 
+import javax.persistence.QueryHint;
 import java.util.Optional;
+import java.util.stream.Stream;
 
-public interface CityRepo extends JpaRepository<City, Long> {
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+public interface CityRepo extends JpaRepository<City, Long>, CityRepoCustom {
     Optional<City> findByName(String name);
+
+    // It has to be called inside a transaction and the stream has to be closed
+    @Query("SELECT c.name AS name, c.latitude AS latitude, c.longitude AS longitude " +
+            "FROM City c WHERE c.latitude IS NOT NULL AND c.longitude IS NOT NULL")
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = DistanceRepo.STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_READONLY, value = "true")})
+    Stream<CityCoordinatesView> streamCoordinates();
 }
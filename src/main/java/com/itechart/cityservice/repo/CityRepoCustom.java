@@ -0,0 +1,13 @@
+package com.itechart.cityservice.repo;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+public interface CityRepoCustom {
+    // Returns ids of the cities by their names. Cities which don't exist yet are created
+    Map<String, Long> findOrCreateIds(Collection<String> names);
+
+    // Sets coordinates of the existing cities. Returns names of the updated cities
+    Set<String> updateCoordinates(String[] names, double[] latitudes, double[] longitudes);
+}
@@ -0,0 +1,87 @@
+package com.itechart.cityservice.repo;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import java.sql.PreparedStatement;
+import java.util.*;
+
+public class CityRepoCustomImpl implements CityRepoCustom {
+    private static final String SELECT_IDS = "SELECT id, name FROM city WHERE name = ANY (?)";
+    // Cities with the same names could be inserted by a concurrent transaction, then they are just skipped here
+    private static final String INSERT_MISSING = "INSERT INTO city (id, name) " +
+            "SELECT nextval('hibernate_sequence'), t.name FROM unnest(?) AS t(name) " +
+            "ON CONFLICT (name) DO NOTHING RETURNING id, name";
+    private static final String UPDATE_COORDINATES = "UPDATE city SET latitude = t.latitude, longitude = t.longitude " +
+            "FROM unnest(?, ?, ?) AS t(name, latitude, longitude) WHERE city.name = t.name RETURNING city.name";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public CityRepoCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public Map<String, Long> findOrCreateIds(Collection<String> names) {
+        Map<String, Long> ids = query(SELECT_IDS, names);
+        if (ids.size() == names.size()) {
+            return ids;
+        }
+
+        List<String> missing = new ArrayList<>();
+        for (String name : names) {
+            if (!ids.containsKey(name)) {
+                missing.add(name);
+            }
+        }
+        Map<String, Long> created = query(INSERT_MISSING, missing);
+        ids.putAll(created);
+
+        // the rest of cities were created by somebody else after our first query
+        if (created.size() < missing.size()) {
+            missing.removeAll(created.keySet());
+            ids.putAll(query(SELECT_IDS, missing));
+        }
+        return ids;
+    }
+
+    @Override
+    public Set<String> updateCoordinates(String[] names, double[] latitudes, double[] longitudes) {
+        Object[] boxedLatitudes = new Object[latitudes.length];
+        Object[] boxedLongitudes = new Object[longitudes.length];
+        for (int i = 0; i < latitudes.length; i++) {
+            boxedLatitudes[i] = latitudes[i];
+            boxedLongitudes[i] = longitudes[i];
+        }
+
+        ResultSetExtractor<Set<String>> extractor = rs -> {
+            Set<String> result = new HashSet<>();
+            while (rs.next()) {
+                result.add(rs.getString("name"));
+            }
+            return result;
+        };
+        return jdbcTemplate.query(con -> {
+            PreparedStatement statement = con.prepareStatement(UPDATE_COORDINATES);
+            statement.setArray(1, con.createArrayOf("varchar", names));
+            statement.setArray(2, con.createArrayOf("float8", boxedLatitudes));
+            statement.setArray(3, con.createArrayOf("float8", boxedLongitudes));
+            return statement;
+        }, extractor);
+    }
+
+    private Map<String, Long> query(String sql, Collection<String> names) {
+        ResultSetExtractor<Map<String, Long>> extractor = rs -> {
+            Map<String, Long> result = new HashMap<>();
+            while (rs.next()) {
+                result.put(rs.getString("name"), rs.getLong("id"));
+            }
+            return result;
+        };
+        return jdbcTemplate.query(con -> {
+            PreparedStatement statement = con.prepareStatement(sql);
+            statement.setArray(1, con.createArrayOf("varchar", names.toArray()));
+            return statement;
+        }, extractor);
+    }
+}
@@ -0,0 +1,63 @@
+package com.itechart.cityservice.repo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.data.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Normalizes distances which were written before pairs of cities were normalized: a pair could be stored
+ * in both directions, and the same pair could be stored twice by concurrent requests. The latest row of every pair
+ * is kept, profiles of the other rows are moved to it, and the kept row gets the smaller id of cities first.
+ * It runs before Hibernate updates the schema, so the unique constraint of pairs can be created afterwards.
+ */
+@Component
+public class DistanceMigration {
+    private static final Logger logger = LoggerFactory.getLogger(DistanceMigration.class);
+
+    // every row with the id of the latest row of its pair
+    private static final String KEPT = "(SELECT id, max(id) OVER (PARTITION BY LEAST(first_city, second_city), " +
+            "GREATEST(first_city, second_city)) AS kept_id FROM distance)";
+
+    // One statement is one transaction, so the distances are never seen half migrated. Writers wait for the lock,
+    // and nothing is done if all pairs are normalized and the constraint already keeps them unique
+    private static final String MIGRATE = "DO $$ " +
+            "BEGIN " +
+            "IF to_regclass('distance') IS NULL THEN RETURN; END IF; " +
+            "LOCK TABLE distance IN SHARE ROW EXCLUSIVE MODE; " +
+            "IF EXISTS (SELECT 1 FROM pg_constraint WHERE conname = 'uk_distance_cities') " +
+            "AND NOT EXISTS (SELECT 1 FROM distance WHERE first_city > second_city) THEN RETURN; END IF; " +
+            "IF to_regclass('distance_profile') IS NOT NULL THEN " +
+            "UPDATE distance_profile p SET distance_id = k.kept_id FROM " + KEPT + " k " +
+            "WHERE p.distance_id = k.id AND k.id <> k.kept_id; " +
+            "END IF; " +
+            "DELETE FROM distance d USING " + KEPT + " k WHERE d.id = k.id AND k.id <> k.kept_id; " +
+            "UPDATE distance SET first_city = second_city, second_city = first_city " +
+            "WHERE first_city > second_city; " +
+            "END $$";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public DistanceMigration(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void migrate() {
+        long start = System.nanoTime();
+        jdbcTemplate.execute(MIGRATE);
+        logger.info("distances were normalized in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // the entity manager factory updates the schema, so it waits for the migration
+    @Configuration
+    static class EntityManagerFactoryDependsOnMigration extends EntityManagerFactoryDependsOnPostProcessor {
+        EntityManagerFactoryDependsOnMigration() {
+            super("distanceMigration");
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.itechart.cityservice.repo;
+
+import com.itechart.cityservice.domain.DistanceProfile;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+
+import javax.persistence.QueryHint;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+public interface DistanceProfileRepo extends JpaRepository<DistanceProfile, Long>, DistanceProfileRepoCustom {
+    // Streams all profiles in the order they were appended, so later intervals override the earlier ones
+    // when they are replayed. It has to be called inside a transaction and the stream has to be closed
+    @Query("SELECT f.name AS firstCity, s.name AS secondCity, p.fromMinute AS fromMinute, p.toMinute AS toMinute, " +
+            "p.distance AS distance FROM DistanceProfile p JOIN p.base d JOIN d.firstCity f JOIN d.secondCity s " +
+            "ORDER BY p.revision, p.id")
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = DistanceRepo.STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_READONLY, value = "true")})
+    Stream<DistanceProfileView> streamAll();
+}
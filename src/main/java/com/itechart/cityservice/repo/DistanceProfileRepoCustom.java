@@ -0,0 +1,9 @@
+package com.itechart.cityservice.repo;
+
+public interface DistanceProfileRepoCustom {
+    // Appends the first "count" profiles with the revision, their ids grow in the order of arrays.
+    // Pairs of cities have to be normalized (the smaller id first). Profiles of pairs without a distance
+    // are skipped, so the number of appended profiles is returned
+    int appendProfiles(long[] firstCities, long[] secondCities, int[] fromMinutes, int[] toMinutes,
+                       long[] distances, int count, long revision);
+}
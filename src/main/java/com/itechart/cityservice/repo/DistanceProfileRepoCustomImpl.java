@@ -0,0 +1,60 @@
+package com.itechart.cityservice.repo;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+public class DistanceProfileRepoCustomImpl implements DistanceProfileRepoCustom {
+    // the whole batch is sent as arrays and joined with distances, so it takes a single round trip to the database
+    private static final String APPEND = "INSERT INTO distance_profile " +
+            "(id, distance_id, from_minute, to_minute, distance, revision) " +
+            "SELECT nextval('hibernate_sequence'), d.id, t.from_minute, t.to_minute, t.distance, ? " +
+            "FROM unnest(?, ?, ?, ?, ?) WITH ORDINALITY " +
+            "AS t(first_city, second_city, from_minute, to_minute, distance, position) " +
+            "JOIN distance d ON d.first_city = t.first_city AND d.second_city = t.second_city " +
+            "ORDER BY t.position";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public DistanceProfileRepoCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public int appendProfiles(long[] firstCities, long[] secondCities, int[] fromMinutes, int[] toMinutes,
+                              long[] distances, int count, long revision) {
+        if (count == 0) {
+            return 0;
+        }
+
+        return jdbcTemplate.update(con -> {
+            PreparedStatement statement = con.prepareStatement(APPEND);
+            statement.setLong(1, revision);
+            statement.setArray(2, toArray(con, firstCities, count));
+            statement.setArray(3, toArray(con, secondCities, count));
+            statement.setArray(4, toArray(con, fromMinutes, count));
+            statement.setArray(5, toArray(con, toMinutes, count));
+            statement.setArray(6, toArray(con, distances, count));
+            return statement;
+        });
+    }
+
+    private Array toArray(Connection con, long[] values, int count) throws SQLException {
+        Long[] boxed = new Long[count];
+        for (int i = 0; i < count; i++) {
+            boxed[i] = values[i];
+        }
+        return con.createArrayOf("bigint", boxed);
+    }
+
+    private Array toArray(Connection con, int[] values, int count) throws SQLException {
+        Integer[] boxed = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            boxed[i] = values[i];
+        }
+        return con.createArrayOf("integer", boxed);
+    }
+}
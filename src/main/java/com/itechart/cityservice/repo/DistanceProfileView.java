@@ -0,0 +1,14 @@
+package com.itechart.cityservice.repo;
+
+// Read-only row of a distance profile with names of its cities, it's not managed by the persistence context
+public interface DistanceProfileView {
+    String getFirstCity();
+
+    String getSecondCity();
+
+    Integer getFromMinute();
+
+    Integer getToMinute();
+
+    Long getDistance();
+}
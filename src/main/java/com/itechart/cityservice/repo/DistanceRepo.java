@@ -1,11 +1,25 @@
 package com.itechart.cityservice.repo;
 
-import com.itechart.cityservice.domain.City;
 import com.itechart.cityservice.domain.Distance;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 
-import java.util.Optional;
+import javax.persistence.QueryHint;
+import java.util.stream.Stream;
 
-public interface DistanceRepo extends JpaRepository<Distance, Long> {
-    Optional<Distance> findByFirstCityAndSecondCity(City firstCity, City secondCity);
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+public interface DistanceRepo extends JpaRepository<Distance, Long>, DistanceRepoCustom {
+    // rows are fetched from the database in portions of this size while the stream is consumed
+    String STREAM_FETCH_SIZE = "10000";
+
+    // Streams all distances without loading entities, so memory doesn't depend on the number of distances.
+    // It has to be called inside a transaction and the stream has to be closed
+    @Query("SELECT f.name AS firstCity, s.name AS secondCity, d.distance AS distance " +
+            "FROM Distance d JOIN d.firstCity f JOIN d.secondCity s")
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_READONLY, value = "true")})
+    Stream<DistanceView> streamAll();
 }
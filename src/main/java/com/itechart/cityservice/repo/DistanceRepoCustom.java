@@ -0,0 +1,7 @@
+package com.itechart.cityservice.repo;
+
+public interface DistanceRepoCustom {
+    // Inserts the first "count" distances or updates them if the distance between the same cities already exists.
+    // Pairs of cities have to be normalized (the smaller id first) and unique within the call
+    void upsertDistances(long[] firstCities, long[] secondCities, long[] distances, int count);
+}
@@ -0,0 +1,45 @@
+package com.itechart.cityservice.repo;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+public class DistanceRepoCustomImpl implements DistanceRepoCustom {
+    // the whole batch is sent as three arrays, so it takes a single round trip to the database
+    private static final String UPSERT = "INSERT INTO distance (id, first_city, second_city, distance) " +
+            "SELECT nextval('hibernate_sequence'), t.first_city, t.second_city, t.distance " +
+            "FROM unnest(?, ?, ?) AS t(first_city, second_city, distance) " +
+            "ON CONFLICT (first_city, second_city) DO UPDATE SET distance = EXCLUDED.distance";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public DistanceRepoCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void upsertDistances(long[] firstCities, long[] secondCities, long[] distances, int count) {
+        if (count == 0) {
+            return;
+        }
+
+        jdbcTemplate.update(con -> {
+            PreparedStatement statement = con.prepareStatement(UPSERT);
+            statement.setArray(1, toArray(con, firstCities, count));
+            statement.setArray(2, toArray(con, secondCities, count));
+            statement.setArray(3, toArray(con, distances, count));
+            return statement;
+        });
+    }
+
+    private Array toArray(Connection con, long[] values, int count) throws SQLException {
+        Long[] boxed = new Long[count];
+        for (int i = 0; i < count; i++) {
+            boxed[i] = values[i];
+        }
+        return con.createArrayOf("bigint", boxed);
+    }
+}
@@ -0,0 +1,10 @@
+package com.itechart.cityservice.repo;
+
+// Read-only row of a distance with names of its cities, it's not managed by the persistence context
+public interface DistanceView {
+    String getFirstCity();
+
+    String getSecondCity();
+
+    Long getDistance();
+}
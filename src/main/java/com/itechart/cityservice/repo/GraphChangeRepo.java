@@ -0,0 +1,7 @@
+package com.itechart.cityservice.repo;
+
+import com.itechart.cityservice.domain.GraphChange;
+import org.springframework.data.repository.Repository;
+
+public interface GraphChangeRepo extends Repository<GraphChange, Long>, GraphChangeRepoCustom {
+}
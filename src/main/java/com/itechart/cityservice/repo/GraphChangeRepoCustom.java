@@ -0,0 +1,19 @@
+package com.itechart.cityservice.repo;
+
+import com.itechart.cityservice.graph.GraphDelta;
+
+import java.util.List;
+
+public interface GraphChangeRepoCustom {
+    // the channel of notifications about new revisions, the payload is the revision
+    String CHANNEL = "graph_changes";
+
+    // Writes the delta with its revision and notifies listeners of the channel. It has to be called inside
+    // the transaction which made the changes, then the notification is delivered only when it's committed
+    void append(GraphDelta delta);
+
+    // returns at most "limit" deltas with revisions after the given one in the order of revisions
+    List<GraphDelta> findAfter(long revision, int limit);
+
+    void deleteBefore(long revision);
+}
@@ -0,0 +1,98 @@
+package com.itechart.cityservice.repo;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.itechart.cityservice.graph.GraphDelta;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import java.io.UncheckedIOException;
+import java.util.List;
+
+// Changes are kept as {"cleared": true, "distances": [[cityA, cityB, distance], ...],
+// "coordinates": [[city, latitude, longitude], ...], "profiles": [[cityA, cityB, interval], ...]},
+// "cleared" is written only if all distances were deleted. Intervals are packed by WeightProfiles.pack()
+public class GraphChangeRepoCustomImpl implements GraphChangeRepoCustom {
+    private static final String INSERT = "INSERT INTO graph_change (revision, changes) VALUES (?, ?)";
+    private static final String NOTIFY = "SELECT pg_notify(?, ?)";
+    private static final String SELECT_AFTER = "SELECT revision, changes FROM graph_change WHERE revision > ? " +
+            "ORDER BY revision LIMIT ?";
+    private static final String DELETE_BEFORE = "DELETE FROM graph_change WHERE revision < ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    public GraphChangeRepoCustomImpl(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void append(GraphDelta delta) {
+        jdbcTemplate.update(INSERT, delta.revision(), delta.isReloadRequired() ? null : toJson(delta));
+        // pg_notify() returns nothing useful, so the result is just skipped
+        jdbcTemplate.query(NOTIFY, (ResultSetExtractor<Void>) rs -> null, CHANNEL, String.valueOf(delta.revision()));
+    }
+
+    @Override
+    public List<GraphDelta> findAfter(long revision, int limit) {
+        return jdbcTemplate.query(SELECT_AFTER, (rs, rowNum) -> {
+            GraphDelta delta = new GraphDelta().setRevision(rs.getLong("revision"));
+            String changes = rs.getString("changes");
+            return changes == null ? delta.setReloadRequired(true) : fromJson(changes, delta);
+        }, revision, limit);
+    }
+
+    @Override
+    public void deleteBefore(long revision) {
+        jdbcTemplate.update(DELETE_BEFORE, revision);
+    }
+
+    private String toJson(GraphDelta delta) {
+        ObjectNode root = objectMapper.createObjectNode();
+        if (delta.isCleared()) {
+            root.put("cleared", true);
+        }
+        ArrayNode distances = root.putArray("distances");
+        for (int i = 0; i < delta.size(); i++) {
+            distances.addArray().add(delta.firstCity(i)).add(delta.secondCity(i)).add(delta.distance(i));
+        }
+        ArrayNode coordinates = root.putArray("coordinates");
+        for (int i = 0; i < delta.coordinatesSize(); i++) {
+            coordinates.addArray().add(delta.coordinatesCity(i)).add(delta.latitude(i)).add(delta.longitude(i));
+        }
+        ArrayNode profiles = root.putArray("profiles");
+        for (int i = 0; i < delta.profilesSize(); i++) {
+            profiles.addArray().add(delta.profileFirstCity(i)).add(delta.profileSecondCity(i))
+                    .add(delta.profileInterval(i));
+        }
+        try {
+            return objectMapper.writeValueAsString(root);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private GraphDelta fromJson(String changes, GraphDelta delta) {
+        JsonNode root;
+        try {
+            root = objectMapper.readTree(changes);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        delta.setCleared(root.path("cleared").asBoolean(false));
+        for (JsonNode distance : root.path("distances")) {
+            delta.addDistance(distance.get(0).asText(), distance.get(1).asText(), distance.get(2).asLong());
+        }
+        for (JsonNode coordinates : root.path("coordinates")) {
+            delta.addCoordinates(coordinates.get(0).asText(), coordinates.get(1).asDouble(), coordinates.get(2).asDouble());
+        }
+        for (JsonNode profile : root.path("profiles")) {
+            delta.addProfile(profile.get(0).asText(), profile.get(1).asText(), profile.get(2).asLong());
+        }
+        return delta;
+    }
+}
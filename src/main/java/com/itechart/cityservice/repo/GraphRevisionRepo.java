@@ -0,0 +1,7 @@
+package com.itechart.cityservice.repo;
+
+import com.itechart.cityservice.domain.GraphRevision;
+import org.springframework.data.repository.Repository;
+
+public interface GraphRevisionRepo extends Repository<GraphRevision, Integer>, GraphRevisionRepoCustom {
+}
@@ -0,0 +1,10 @@
+package com.itechart.cityservice.repo;
+
+public interface GraphRevisionRepoCustom {
+    // Returns the revision of the current transaction. The row stays locked until the transaction ends,
+    // so writing transactions get revisions in the order of their commits
+    long incrementRevision();
+
+    // returns 0 if nothing has been written yet
+    long currentRevision();
+}
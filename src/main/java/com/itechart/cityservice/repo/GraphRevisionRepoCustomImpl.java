@@ -0,0 +1,30 @@
+package com.itechart.cityservice.repo;
+
+import com.itechart.cityservice.domain.GraphRevision;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+public class GraphRevisionRepoCustomImpl implements GraphRevisionRepoCustom {
+    private static final String INCREMENT = "INSERT INTO graph_revision (id, revision) VALUES (?, 1) " +
+            "ON CONFLICT (id) DO UPDATE SET revision = graph_revision.revision + 1 RETURNING revision";
+    private static final String SELECT = "SELECT revision FROM graph_revision WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public GraphRevisionRepoCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public long incrementRevision() {
+        Long revision = jdbcTemplate.queryForObject(INCREMENT, Long.class, GraphRevision.ID);
+        return revision == null ? 0L : revision;
+    }
+
+    @Override
+    public long currentRevision() {
+        List<Long> revisions = jdbcTemplate.queryForList(SELECT, Long.class, GraphRevision.ID);
+        return revisions.isEmpty() ? 0L : revisions.get(0);
+    }
+}
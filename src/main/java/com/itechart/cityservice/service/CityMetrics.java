@@ -0,0 +1,155 @@
+package com.itechart.cityservice.service;
+
+import com.itechart.cityservice.graph.GraphSnapshot;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Metrics of path searches, of the cached graph and of ingestion. Rates (e.g. ingested rows per second)
+ * are derived from the counters by the monitoring system.
+ */
+@Component
+public class CityMetrics {
+    // kinds of searches, they are used as the "search" tag
+    public static final String ALL_PATHS = "all";
+    public static final String K_SHORTEST_PATHS = "k-shortest";
+    public static final String BOUNDED_PATHS = "bounded";
+    public static final String SHORTEST_PATH = "shortest";
+    public static final String STREAM = "stream";
+    public static final String BATCH = "batch";
+    public static final String MATRIX = "matrix";
+    // decisions about expensive searches, they are used as the "outcome" tag
+    public static final String DOWNGRADED = "downgraded";
+    public static final String REJECTED = "rejected";
+
+    private final MeterRegistry registry;
+
+    private final Timer graphReload;
+    private final Timer graphPublish;
+    private final Counter graphPublishConflicts;
+    private final Timer ingestion;
+    private final Counter ingestedRows;
+
+    public CityMetrics(MeterRegistry registry) {
+        this.registry = registry;
+
+        this.graphReload = Timer.builder("cityservice.graph.reload")
+                .description("Full reload of the cached graph from the database")
+                .register(registry);
+        this.graphPublish = Timer.builder("cityservice.graph.publish")
+                .description("Building and publishing of the next version of the cached graph from a delta")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.graphPublishConflicts = Counter.builder("cityservice.graph.publish.conflicts")
+                .description("Versions of the cached graph which were rebuilt because another writer published first")
+                .register(registry);
+        this.ingestion = Timer.builder("cityservice.ingestion")
+                .description("Writing of distances to the database")
+                .register(registry);
+        this.ingestedRows = Counter.builder("cityservice.ingestion.rows")
+                .description("Distances which were written to the database")
+                .register(registry);
+    }
+
+    public void bindGraph(Supplier<GraphSnapshot> graph) {
+        Gauge.builder("cityservice.graph.cities", () -> graph.get().size())
+                .description("Cities in the cached graph")
+                .register(registry);
+        Gauge.builder("cityservice.graph.distances", () -> graph.get().edgeCount())
+                .description("Distances in the cached graph")
+                .register(registry);
+        Gauge.builder("cityservice.graph.version", () -> graph.get().version())
+                .description("Version of the cached graph")
+                .register(registry);
+        Gauge.builder("cityservice.graph.profiles", () -> graph.get().profiles().size())
+                .description("Distances of the cached graph which have time-of-day profiles")
+                .register(registry);
+    }
+
+    public void bindIngestionQueue(Supplier<Number> queuedDistances) {
+        Gauge.builder("cityservice.ingestion.queue.distances", queuedDistances)
+                .description("Distances which wait in the ingestion queue")
+                .register(registry);
+    }
+
+    public void bindLane(String lane, ThreadPoolExecutor executor) {
+        Gauge.builder("cityservice.lane.queued", executor, e -> e.getQueue().size())
+                .description("Requests which wait in the queue of the execution lane")
+                .tag("lane", lane)
+                .register(registry);
+        Gauge.builder("cityservice.lane.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Requests which are being handled by threads of the execution lane")
+                .tag("lane", lane)
+                .register(registry);
+    }
+
+    public void recordLaneWait(String lane, long submittedNanos) {
+        Timer.builder("cityservice.lane.wait")
+                .description("Time which requests spend in the queue of the execution lane")
+                .tag("lane", lane)
+                .register(registry)
+                .record(System.nanoTime() - submittedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordLaneRejection(String lane) {
+        registry.counter("cityservice.lane.rejected", "lane", lane).increment();
+    }
+
+    public void recordAdmission(String outcome) {
+        registry.counter("cityservice.admission", "outcome", outcome).increment();
+    }
+
+    public void recordRateLimited() {
+        registry.counter("cityservice.rate-limit.rejected").increment();
+    }
+
+    public void recordSearch(String search, long startNanos, long expandedCities, int paths, boolean truncated) {
+        Timer.builder("cityservice.search")
+                .description("Latency of path searches")
+                .tag("search", search)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("cityservice.search.expanded.cities")
+                .description("Cities which were expanded by one search")
+                .tag("search", search)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(expandedCities);
+        recordPaths(search, paths);
+        if (truncated) {
+            registry.counter("cityservice.search.truncated", "search", search).increment();
+        }
+    }
+
+    // the search wasn't started because the cities are in different components
+    public void recordUnreachable(String search) {
+        registry.counter("cityservice.search.unreachable", "search", search).increment();
+    }
+
+    public void recordPaths(String search, int paths) {
+        registry.counter("cityservice.search.paths", "search", search).increment(paths);
+    }
+
+    public void recordReload(long startNanos) {
+        graphReload.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordPublish(long startNanos, int conflicts) {
+        graphPublish.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        graphPublishConflicts.increment(conflicts);
+    }
+
+    public void recordIngestion(long startNanos, int rows) {
+        ingestion.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        ingestedRows.increment(rows);
+    }
+}
@@ -1,15 +1,51 @@
 package com.itechart.cityservice.service;
 
+import com.itechart.cityservice.dto.CityCoordinatesDTO;
+import com.itechart.cityservice.dto.CityPairDTO;
 import com.itechart.cityservice.dto.DistanceDTO;
+import com.itechart.cityservice.dto.DistanceMatrix;
+import com.itechart.cityservice.dto.DistanceProfileDTO;
+import com.itechart.cityservice.dto.PathBatchResult;
 import com.itechart.cityservice.dto.PathRequestDTO;
 import com.itechart.cityservice.dto.PathResponse;
+import com.itechart.cityservice.dto.PathSearchResult;
+import com.itechart.cityservice.dto.ReachabilityResult;
+import com.itechart.cityservice.dto.ShortestPathAlgorithm;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 
 public interface CityService {
     void addDistances(List<DistanceDTO> distances);
 
+    void addDistances(Iterator<DistanceDTO> distances);
+
+    void updateCoordinates(List<CityCoordinatesDTO> coordinates);
+
+    // appends time-of-day intervals to existing distances, see DistanceProfileDTO
+    void addProfiles(List<DistanceProfileDTO> profiles);
+
     List<PathResponse> findAllPaths(PathRequestDTO pathRequest);
 
+    PathSearchResult searchPaths(PathRequestDTO pathRequest);
+
+    PathStream streamPaths(PathRequestDTO pathRequest);
+
+    PathSearchResult findShortestPath(PathRequestDTO pathRequest, ShortestPathAlgorithm algorithm);
+
+    PathBatchResult findShortestPaths(List<CityPairDTO> pairs);
+
+    DistanceMatrix findDistanceMatrix(List<String> origins, List<String> destinations);
+
+    // component of the city in the cached graph, it's answered by the index without any search
+    ReachabilityResult findReachable(String city);
+
+    // estimated work of the search of paths, as it will be searched after admission
+    long estimateCost(PathRequestDTO pathRequest);
+
+    // estimated work of shortest path searches from these cities, unknown cities cost nothing
+    long estimateSearchCost(Collection<String> startCities);
+
     void deleteAllDistances();
 }
@@ -1,200 +1,934 @@
 package com.itechart.cityservice.service;
 
-import com.itechart.cityservice.domain.City;
-import com.itechart.cityservice.domain.Distance;
-import com.itechart.cityservice.dto.CityDto;
+import com.itechart.cityservice.dto.CityCoordinatesDTO;
+import com.itechart.cityservice.dto.CityPairDTO;
 import com.itechart.cityservice.dto.DistanceDTO;
+import com.itechart.cityservice.dto.DistanceMatrix;
+import com.itechart.cityservice.dto.DistanceProfileDTO;
+import com.itechart.cityservice.dto.PathBatchItemDTO;
+import com.itechart.cityservice.dto.PathBatchResult;
 import com.itechart.cityservice.dto.PathRequestDTO;
 import com.itechart.cityservice.dto.PathResponse;
+import com.itechart.cityservice.dto.PathSearchResult;
+import com.itechart.cityservice.dto.ReachabilityDTO;
+import com.itechart.cityservice.dto.ReachabilityResult;
+import com.itechart.cityservice.dto.ShortestPathAlgorithm;
+import com.itechart.cityservice.exception.InvalidDistancesException;
 import com.itechart.cityservice.exception.PathNotExistsException;
+import com.itechart.cityservice.exception.RequestTooLargeException;
 import com.itechart.cityservice.exception.UnknownCityException;
+import com.itechart.cityservice.graph.ComponentIndex;
+import com.itechart.cityservice.graph.ContractionHierarchy;
+import com.itechart.cityservice.graph.ContractionHierarchySearch;
+import com.itechart.cityservice.graph.DistanceIndex;
+import com.itechart.cityservice.graph.GraphDelta;
+import com.itechart.cityservice.graph.GraphSnapshot;
+import com.itechart.cityservice.graph.KShortestPaths;
+import com.itechart.cityservice.graph.PathEnumeration;
+import com.itechart.cityservice.graph.ShortestPathSearch;
+import com.itechart.cityservice.graph.ShortestPathTree;
+import com.itechart.cityservice.graph.WeightProfiles;
+import com.itechart.cityservice.repo.CityCoordinatesView;
 import com.itechart.cityservice.repo.CityRepo;
+import com.itechart.cityservice.repo.DistanceProfileRepo;
+import com.itechart.cityservice.repo.DistanceProfileView;
 import com.itechart.cityservice.repo.DistanceRepo;
+import com.itechart.cityservice.repo.DistanceView;
+import com.itechart.cityservice.repo.GraphChangeRepo;
+import com.itechart.cityservice.repo.GraphRevisionRepo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalTime;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
 @Service
 public class CityServiceImpl implements CityService {
     private static final Logger logger = LoggerFactory.getLogger(CityServiceImpl.class);
+    // how many changes are read from the outbox at once
+    private static final int CHANGES_READ_LIMIT = 1000;
+    // old changes are deleted from the outbox by every writer of a revision which is a multiple of this
+    private static final long CHANGES_CLEANUP_INTERVAL = 1000;
 
     private final DistanceRepo distanceRepo;
+    private final DistanceProfileRepo distanceProfileRepo;
     private final CityRepo cityRepo;
-
-    private Map<String, CityDto> cachedCities;
-    private final ReentrantReadWriteLock reentrantReadWriteLock = new ReentrantReadWriteLock();
-    private final WriteLock writeLock = reentrantReadWriteLock.writeLock();
-    private final ReadLock readLock = reentrantReadWriteLock.readLock();
-
-
-    public CityServiceImpl(DistanceRepo distanceRepo, CityRepo cityRepo) {
+    private final GraphRevisionRepo graphRevisionRepo;
+    private final GraphChangeRepo graphChangeRepo;
+    private final GraphChangeListener changeListener;
+    private final PathCache pathCache;
+    private final TimedGraphs timedGraphs;
+    private final GraphSnapshotStore snapshotStore;
+    private final DistanceIndexUpdater distanceIndexUpdater;
+    private final ContractionHierarchyUpdater contractionHierarchyUpdater;
+    private final QueryCostEstimator costEstimator;
+    private final CityMetrics metrics;
+    private final int batchSize;
+    private final double distancePerKm;
+    private final int maxPaths;
+    private final long searchTimeout;
+    private final long maxMatrixCells;
+    // larger changes are not written to the outbox, other instances reload the graph instead
+    private final int maxChangeSize;
+    private final long changeRetention;
+    // exhaustive searches are split between threads of this pool
+    private final ForkJoinPool searchPool;
+    // Distances and the revision are read from the same snapshot of the database
+    private final TransactionTemplate reloadTransaction;
+    // Missing changes are read from the outbox right after the commit of a writing transaction,
+    // so they need a transaction of their own
+    private final TransactionTemplate changesTransaction;
+
+    // Snapshot is immutable, so readers just take the current version and never block.
+    // Writers build the next version and publish it with compare-and-set, so they don't lose each other's changes
+    private final AtomicReference<GraphSnapshot> graph = new AtomicReference<>(GraphSnapshot.EMPTY);
+    // Committed deltas which can't be applied yet, because deltas of previous revisions haven't been applied.
+    // It's also the lock which orders application of deltas and publication of reloaded graphs
+    private final NavigableMap<Long, GraphDelta> pendingDeltas = new TreeMap<>();
+    // serializes reloads which are needed to catch up with the database, see reloadAndCatchUp()
+    private final Object reloadLock = new Object();
+    // weights version of the latest published graph, nothing is built before the first graph is published
+    private final AtomicLong publishedWeightsVersion = new AtomicLong(-1L);
+
+
+    public CityServiceImpl(DistanceRepo distanceRepo, DistanceProfileRepo distanceProfileRepo, CityRepo cityRepo,
+                           GraphRevisionRepo graphRevisionRepo, GraphChangeRepo graphChangeRepo,
+                           GraphChangeListener changeListener, PathCache pathCache, TimedGraphs timedGraphs,
+                           GraphSnapshotStore snapshotStore,
+                           DistanceIndexUpdater distanceIndexUpdater,
+                           ContractionHierarchyUpdater contractionHierarchyUpdater,
+                           QueryCostEstimator costEstimator, CityMetrics metrics,
+                           PlatformTransactionManager transactionManager,
+                           @Value("${cityservice.ingestion.batch-size:1000}") int batchSize,
+                           @Value("${cityservice.astar.distance-per-km:1.0}") double distancePerKm,
+                           @Value("${cityservice.search.max-paths:100000}") int maxPaths,
+                           @Value("${cityservice.search.timeout-ms:10000}") long searchTimeout,
+                           @Value("${cityservice.search.parallelism:0}") int searchParallelism,
+                           @Value("${cityservice.matrix.max-cells:4000000}") long maxMatrixCells,
+                           @Value("${cityservice.change-feed.max-delta-size:100000}") int maxChangeSize,
+                           @Value("${cityservice.change-feed.retention:10000}") long changeRetention) {
         this.distanceRepo = distanceRepo;
+        this.distanceProfileRepo = distanceProfileRepo;
         this.cityRepo = cityRepo;
+        this.graphRevisionRepo = graphRevisionRepo;
+        this.graphChangeRepo = graphChangeRepo;
+        this.changeListener = changeListener;
+        this.pathCache = pathCache;
+        this.timedGraphs = timedGraphs;
+        this.snapshotStore = snapshotStore;
+        this.distanceIndexUpdater = distanceIndexUpdater;
+        this.contractionHierarchyUpdater = contractionHierarchyUpdater;
+        this.costEstimator = costEstimator;
+        this.metrics = metrics;
+        metrics.bindGraph(graph::get);
+        this.batchSize = batchSize;
+        this.distancePerKm = distancePerKm;
+        this.maxPaths = maxPaths;
+        this.searchTimeout = searchTimeout;
+        this.maxMatrixCells = maxMatrixCells;
+        this.maxChangeSize = maxChangeSize;
+        this.changeRetention = changeRetention;
+        this.searchPool = new ForkJoinPool(searchParallelism > 0
+                ? searchParallelism : Runtime.getRuntime().availableProcessors());
+
+        this.reloadTransaction = new TransactionTemplate(transactionManager);
+        this.reloadTransaction.setReadOnly(true);
+        this.reloadTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.reloadTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.changesTransaction = new TransactionTemplate(transactionManager);
+        this.changesTransaction.setReadOnly(true);
+        this.changesTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
     }
 
     @PostConstruct
     public void postConstruct() {
-        this.updateCache();
+        GraphSnapshot stored = snapshotStore.load(graph.get().version() + 1);
+        if (stored == null) {
+            this.updateCache();
+            // changes of other instances are applied as soon as they are committed
+            changeListener.start(this::applyCommittedChanges);
+            return;
+        }
+
+        // The service starts with the stored graph right away. It could be stale,
+        // so it's compared with the database in the background
+        graph.set(stored);
+        onGraphPublished();
+        // the change listener starts when the graph is up to date, so that they don't reload it at the same time
+        Thread reconciler = new Thread(() -> {
+            reconcile();
+            changeListener.start(this::applyCommittedChanges);
+        }, "graph-reconciler");
+        reconciler.setDaemon(true);
+        reconciler.start();
+    }
+
+    // The revision and the number of distances are read from the same snapshot of the database. A stored graph
+    // of the same revision with another number of distances was written from a broken cached graph
+    private void reconcile() {
+        try {
+            GraphSnapshot stored = graph.get();
+            long[] state = reloadTransaction.execute(status ->
+                    new long[]{graphRevisionRepo.currentRevision(), distanceRepo.count()});
+            if (state[0] == stored.revision() && state[1] == stored.edgeCount()) {
+                logger.info("stored graph is up to date with revision {}", state[0]);
+                return;
+            }
+            logger.info("stored graph has revision {} and {} distances, but the database has revision {} " +
+                    "and {} distances, so the graph is reloaded", stored.revision(), stored.edgeCount(), state[0], state[1]);
+        } catch (Exception e) {
+            logger.error("Some problem occurred while reading revision of the graph, so it's reloaded", e);
+        }
+        updateCache();
+    }
+
+    @PreDestroy
+    public void preDestroy() {
+        searchPool.shutdownNow();
     }
 
     public void updateCache() {
+        long start = System.nanoTime();
         try {
-            // We have to update our cachedCities according to fetched distances.
-            // So, we take exclusive lock for working with that map
-            writeLock.lock();
-
-            // We treat all distances between cities as bidirectional
-            List<Distance> allDistances = distanceRepo.findAll();
-
-            cachedCities = new HashMap<>();
-
-            for (Distance distance : allDistances) {
-                cachedCities.putIfAbsent(distance.getFirstCity().getName(), new CityDto(distance.getFirstCity().getName(), new HashMap<>()));
-                cachedCities.putIfAbsent(distance.getSecondCity().getName(), new CityDto(distance.getSecondCity().getName(), new HashMap<>()));
-
-                // add to map direction from A to B
-                cachedCities.computeIfPresent(distance.getFirstCity().getName(), (k, v) -> {
-                    CityDto secondCity = cachedCities.get(distance.getSecondCity().getName());
-                    v.getAdjacentCities().put(secondCity, distance.getDistance());
-                    return v;
-                });
-
-                // add to map direction from B to A
-                cachedCities.computeIfPresent(distance.getSecondCity().getName(), (k, v) -> {
-                    CityDto firstCity = cachedCities.get(distance.getFirstCity().getName());
-                    v.getAdjacentCities().put(firstCity, distance.getDistance());
-                    return v;
-                });
-            }
-            logger.info("cachedCities was successfully updated at {}", System.currentTimeMillis());
+            // The graph is loaded without the lock, so writers don't wait for the database. Deltas which are applied
+            // in the meantime could be missed by the loaded graph, but deltas are applied in the order of revisions,
+            // so the cached graph of a newer revision already has all changes of the loaded one and it's kept
+            GraphSnapshot loaded = reloadTransaction.execute(status -> loadGraph());
+            synchronized (pendingDeltas) {
+                GraphSnapshot current = graph.get();
+                if (loaded.revision() < current.revision()) {
+                    logger.info("graph of revision {} was loaded, but cached graph has already reached revision {}, " +
+                            "so it's kept", loaded.revision(), current.revision());
+                    return;
+                }
+                graph.set(loaded.withVersion(current.version() + 1));
+                onGraphPublished();
+            }
+
+            metrics.recordReload(start);
+            logger.info("cached graph was successfully updated at {}", System.currentTimeMillis());
         } catch (Exception e) {
-            logger.error("Some problem occurred while updating cachedCities. So cachedCities could be stale now!", e);
-        } finally {
-            writeLock.unlock();
+            logger.error("Some problem occurred while updating cached graph. So cached graph could be stale now!", e);
+        }
+    }
+
+    // Rows are consumed one by one as they are fetched, so only the graph itself is kept in memory.
+    // Profiles come in the order they were appended, so the latest intervals win again.
+    // The loaded graph gets its version when it's published
+    private GraphSnapshot loadGraph() {
+        try (Stream<DistanceView> distances = distanceRepo.streamAll();
+             Stream<CityCoordinatesView> coordinates = cityRepo.streamCoordinates();
+             Stream<DistanceProfileView> profiles = distanceProfileRepo.streamAll()) {
+            GraphSnapshot.Builder builder = toGraph(distances.iterator(), coordinates.iterator());
+            profiles.forEach(profile -> builder.addProfile(profile.getFirstCity(), profile.getSecondCity(),
+                    WeightProfiles.pack(profile.getFromMinute(), profile.getToMinute(), profile.getDistance())));
+            return builder.build(0L, graphRevisionRepo.currentRevision());
+        }
+    }
+
+    // We treat all distances between cities as bidirectional
+    static GraphSnapshot.Builder toGraph(Iterator<DistanceView> distances, Iterator<CityCoordinatesView> coordinates) {
+        GraphSnapshot.Builder builder = GraphSnapshot.builder();
+        while (distances.hasNext()) {
+            DistanceView distance = distances.next();
+            builder.addDistance(distance.getFirstCity(), distance.getSecondCity(), distance.getDistance());
+        }
+        while (coordinates.hasNext()) {
+            CityCoordinatesView city = coordinates.next();
+            builder.setCoordinates(city.getName(), city.getLatitude(), city.getLongitude());
         }
+        return builder;
     }
 
     @Override
     @Transactional
     public void addDistances(List<DistanceDTO> distances) {
-        // If we already have distance between cities in database, then we just update the distance between them.
-        // Otherwise we save a new record for these cities.
-        for (DistanceDTO distanceDTO : distances) {
-            // check if such cities have been already added to database.
-            // Otherwise we need to add to the DB new records for them
-            City cityA = findOrCreateCity(distanceDTO.getCityA());
-            City cityB = findOrCreateCity(distanceDTO.getCityB());
-
-            Optional<Distance> distanceFromDB = distanceRepo.findByFirstCityAndSecondCity(cityA, cityB);
-
-            // If we were not able to find distance between A to B, then maybe it's saved as distance between B to A?
-            // It's possible because we have bidirectional distances
-            if (distanceFromDB.isEmpty()) {
-                distanceFromDB = distanceRepo.findByFirstCityAndSecondCity(cityB, cityA);
-            }
-
-            distanceFromDB.ifPresentOrElse(v -> {
-                v.setDistance(distanceDTO.getDistance());
-                distanceRepo.save(v);
-            }, () -> {
-                Distance freshDistance = new Distance();
-                freshDistance.setFirstCity(cityA);
-                freshDistance.setSecondCity(cityB);
-                freshDistance.setDistance(distanceDTO.getDistance());
-                distanceRepo.save(freshDistance);
+        addDistances(distances.iterator());
+    }
+
+    @Override
+    @Transactional
+    public void addDistances(Iterator<DistanceDTO> distances) {
+        // Distances are written in chunks. Every chunk takes one query to resolve its cities
+        // and one statement to insert or update all its distances
+        long start = System.nanoTime();
+        GraphDelta delta = new GraphDelta();
+        List<DistanceDTO> chunk = new ArrayList<>(batchSize);
+        int rows = 0;
+        while (distances.hasNext()) {
+            chunk.add(distances.next());
+            if (chunk.size() == batchSize || !distances.hasNext()) {
+                writeChunk(chunk, delta);
+                rows += chunk.size();
+                chunk.clear();
+            }
+        }
+        metrics.recordIngestion(start, rows);
+        // nothing was written, so there is no change to publish
+        if (rows == 0) {
+            return;
+        }
+        delta.setRevision(graphRevisionRepo.incrementRevision());
+        publishChange(delta);
+
+        // we need to update our cached graph, but only after the changes become visible for everyone
+        afterCommit(() -> applyInOrder(delta));
+    }
+
+    private void writeChunk(List<DistanceDTO> chunk, GraphDelta delta) {
+        Set<String> names = new HashSet<>();
+        for (DistanceDTO distanceDTO : chunk) {
+            names.add(distanceDTO.getCityA());
+            names.add(distanceDTO.getCityB());
+        }
+        Map<String, Long> ids = cityRepo.findOrCreateIds(names);
+
+        // We treat all distances between cities as bidirectional, so we store each pair only once with the smaller
+        // id first. The same pair can't be updated twice by one statement, so the latest distance in the chunk wins
+        Map<CityPair, Integer> indexes = new HashMap<>();
+        long[] firstCities = new long[chunk.size()];
+        long[] secondCities = new long[chunk.size()];
+        long[] lengths = new long[chunk.size()];
+        int count = 0;
+        for (DistanceDTO distanceDTO : chunk) {
+            long idA = ids.get(distanceDTO.getCityA());
+            long idB = ids.get(distanceDTO.getCityB());
+            CityPair pair = new CityPair(Math.min(idA, idB), Math.max(idA, idB));
+
+            Integer index = indexes.putIfAbsent(pair, count);
+            if (index == null) {
+                index = count++;
+                firstCities[index] = pair.first;
+                secondCities[index] = pair.second;
+            }
+            lengths[index] = distanceDTO.getDistance();
+
+            delta.addDistance(distanceDTO.getCityA(), distanceDTO.getCityB(), distanceDTO.getDistance());
+        }
+
+        distanceRepo.upsertDistances(firstCities, secondCities, lengths, count);
+    }
+
+    @Override
+    @Transactional
+    public void updateCoordinates(List<CityCoordinatesDTO> coordinates) {
+        if (coordinates.isEmpty()) {
+            return;
+        }
+        String[] names = new String[coordinates.size()];
+        double[] latitudes = new double[coordinates.size()];
+        double[] longitudes = new double[coordinates.size()];
+        GraphDelta delta = new GraphDelta();
+        for (int i = 0; i < coordinates.size(); i++) {
+            CityCoordinatesDTO cityCoordinates = coordinates.get(i);
+            names[i] = cityCoordinates.getName();
+            latitudes[i] = cityCoordinates.getLatitude();
+            longitudes[i] = cityCoordinates.getLongitude();
+            delta.addCoordinates(names[i], latitudes[i], longitudes[i]);
+        }
+
+        Set<String> updated = cityRepo.updateCoordinates(names, latitudes, longitudes);
+        for (String name : names) {
+            if (!updated.contains(name)) {
+                // the whole transaction is rolled back, so none of coordinates are changed
+                throw new UnknownCityException(String.format("%s is unknown in the system", name));
+            }
+        }
+        delta.setRevision(graphRevisionRepo.incrementRevision());
+        publishChange(delta);
+
+        afterCommit(() -> applyInOrder(delta));
+    }
+
+    @Override
+    @Transactional
+    public void addProfiles(List<DistanceProfileDTO> profiles) {
+        if (profiles.isEmpty()) {
+            return;
+        }
+        Set<String> names = new HashSet<>();
+        for (DistanceProfileDTO profile : profiles) {
+            names.add(profile.getCityA());
+            names.add(profile.getCityB());
+        }
+        Map<String, Long> ids = cityRepo.findOrCreateIds(names);
+
+        // pairs of cities are normalized the same way as distances, profiles are kept in the order of the request
+        long[] firstCities = new long[profiles.size()];
+        long[] secondCities = new long[profiles.size()];
+        int[] fromMinutes = new int[profiles.size()];
+        int[] toMinutes = new int[profiles.size()];
+        long[] distances = new long[profiles.size()];
+        GraphDelta delta = new GraphDelta();
+        for (int i = 0; i < profiles.size(); i++) {
+            DistanceProfileDTO profile = profiles.get(i);
+            long idA = ids.get(profile.getCityA());
+            long idB = ids.get(profile.getCityB());
+            firstCities[i] = Math.min(idA, idB);
+            secondCities[i] = Math.max(idA, idB);
+            fromMinutes[i] = minuteOf(profile.getFrom());
+            toMinutes[i] = minuteOf(profile.getTo());
+            distances[i] = profile.getDistance();
+            delta.addProfile(profile.getCityA(), profile.getCityB(),
+                    WeightProfiles.pack(fromMinutes[i], toMinutes[i], distances[i]));
+        }
+
+        // rows are appended with the revision, so the graph is loaded with them in the same order
+        delta.setRevision(graphRevisionRepo.incrementRevision());
+        int appended = distanceProfileRepo.appendProfiles(firstCities, secondCities, fromMinutes, toMinutes,
+                distances, profiles.size(), delta.revision());
+        if (appended < profiles.size()) {
+            // the whole transaction is rolled back, so none of profiles are appended
+            throw new InvalidDistancesException(String.format("Profiles can be set only for existing distances, " +
+                    "%d of %d profiles have no distance", profiles.size() - appended, profiles.size()), null);
+        }
+        publishChange(delta);
+
+        afterCommit(() -> applyInOrder(delta));
+    }
+
+    private static int minuteOf(LocalTime time) {
+        return time.getHour() * 60 + time.getMinute();
+    }
+
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    // Other instances of the service learn about the change from the outbox. It's written by the same transaction,
+    // so the change is either committed together with its delta or not committed at all
+    private void publishChange(GraphDelta delta) {
+        if (!changeListener.isEnabled()) {
+            return;
+        }
+        boolean tooLarge = delta.size() + delta.coordinatesSize() + delta.profilesSize() > maxChangeSize;
+        graphChangeRepo.append(tooLarge ? new GraphDelta().setRevision(delta.revision()).setReloadRequired(true) : delta);
+        if (delta.revision() % CHANGES_CLEANUP_INTERVAL == 0) {
+            graphChangeRepo.deleteBefore(delta.revision() - changeRetention);
+        }
+    }
+
+    // Deltas are applied strictly in the order of revisions, otherwise a delta which comes late could overwrite
+    // newer distances. A delta which comes before its predecessors waits for them. Without the change feed
+    // the missing deltas can't be read, but revisions are committed in their order, so the predecessors
+    // are already in the database and the graph is reloaded instead. The late ones are skipped afterwards
+    private void applyInOrder(GraphDelta delta) {
+        long stuck;
+        synchronized (pendingDeltas) {
+            long current = graph.get().revision();
+            if (delta.revision() <= current) {
+                return;
+            }
+            if (!changeListener.isEnabled()) {
+                if (delta.revision() == current + 1) {
+                    applyDelta(delta);
+                    return;
+                }
+                logger.info("changes before revision {} haven't been applied yet, so the graph is reloaded",
+                        delta.revision());
+                stuck = current;
+            } else {
+                // the delta could be already read from the outbox by the change listener or by another writer
+                pendingDeltas.put(delta.revision(), delta);
+                stuck = catchUp(delta.revision());
+            }
+        }
+        reloadAndCatchUp(stuck, delta.revision());
+    }
+
+    // called by the change listener when some instance has committed the revision
+    private void applyCommittedChanges(long revision) {
+        long stuck;
+        synchronized (pendingDeltas) {
+            if (revision <= graph.get().revision()) {
+                return;
+            }
+            stuck = catchUp(revision);
+        }
+        reloadAndCatchUp(stuck, revision);
+    }
+
+    // Applies pending deltas and the ones from the outbox until the cached graph reaches the revision.
+    // Revisions are incremented under a lock until commit, so every committed revision is preceded by all smaller
+    // ones. If any of them is missing in the outbox, then the graph can't be patched and it has to be reloaded:
+    // the revision of the cached graph is returned then, otherwise -1. It's called under the lock of pending deltas
+    private long catchUp(long revision) {
+        try {
+            while (true) {
+                long current = graph.get().revision();
+                pendingDeltas.headMap(current, true).clear();
+                GraphDelta delta = pendingDeltas.remove(current + 1);
+                if (delta != null) {
+                    if (delta.isReloadRequired()) {
+                        return current;
+                    }
+                    applyDelta(delta);
+                    // the delta couldn't be applied, so the same revision would be read again and again
+                    if (graph.get().revision() < delta.revision()) {
+                        return current;
+                    }
+                    continue;
+                }
+
+                boolean expected = !pendingDeltas.isEmpty()
+                        || (revision != GraphChangeListener.UNKNOWN_REVISION && revision > current);
+                List<GraphDelta> changes = changesTransaction.execute(status ->
+                        graphChangeRepo.findAfter(current, CHANGES_READ_LIMIT));
+                if (changes.isEmpty() && !expected) {
+                    return -1;
+                }
+                if (changes.isEmpty() || changes.get(0).revision() != current + 1) {
+                    logger.warn("changes after revision {} are missing in the outbox, so the graph is reloaded", current);
+                    return current;
+                }
+                for (GraphDelta change : changes) {
+                    pendingDeltas.putIfAbsent(change.revision(), change);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Some problem occurred while applying changes to cached graph. " +
+                    "So cached graph could be stale now!", e);
+            return -1;
+        }
+    }
+
+    // The graph is loaded without the lock of pending deltas, so writers whose deltas can be applied don't wait
+    // for the database, their deltas are applied on top of the loaded graph afterwards. Reloads are serialized,
+    // and if another thread has already moved the graph past the stuck revision, then it isn't loaded again.
+    // If the reload doesn't move the graph past it either, then it's tried again with the next change
+    private void reloadAndCatchUp(long stuck, long revision) {
+        if (stuck < 0) {
+            return;
+        }
+        synchronized (reloadLock) {
+            while (stuck >= 0) {
+                if (graph.get().revision() <= stuck) {
+                    updateCache();
+                }
+                synchronized (pendingDeltas) {
+                    if (graph.get().revision() <= stuck) {
+                        return;
+                    }
+                    stuck = changeListener.isEnabled() ? catchUp(revision) : -1;
+                }
+            }
+        }
+    }
+
+    private void applyDelta(GraphDelta delta) {
+        try {
+            long start = System.nanoTime();
+            // the function is called again every time another writer publishes its version first.
+            // A delta could be already in a reloaded graph, then it's skipped
+            int[] attempts = new int[1];
+            GraphSnapshot updated = graph.updateAndGet(g -> {
+                attempts[0]++;
+                return g.revision() >= delta.revision() ? g : g.apply(delta);
             });
+            metrics.recordPublish(start, attempts[0] - 1);
+            onGraphPublished();
+            logger.debug("{} distances, {} coordinates and {} profiles were applied to cached graph, version {}",
+                    delta.size(), delta.coordinatesSize(), delta.profilesSize(), updated.version());
+        } catch (Exception e) {
+            logger.error("Some problem occurred while updating cached graph. So cached graph could be stale now!", e);
         }
+    }
 
-        // we need to update our cached values in "cachedCities" map
-        updateCache();
+    // Everything which is derived from the cached graph has to follow it. Profiles and coordinates
+    // don't change weights, so whatever is built from weights is kept, and appending profiles stays cheap
+    private void onGraphPublished() {
+        long weightsVersion = graph.get().weightsVersion();
+        if (publishedWeightsVersion.getAndSet(weightsVersion) != weightsVersion) {
+            pathCache.invalidateAll();
+            distanceIndexUpdater.rebuild(graph::get);
+            contractionHierarchyUpdater.rebuild(graph::get);
+        }
+        timedGraphs.invalidateAll();
+        snapshotStore.save(graph::get);
     }
 
     @Override
     public List<PathResponse> findAllPaths(PathRequestDTO pathRequest) {
-        try {
-            readLock.lock();
+        return searchPaths(pathRequest).getPaths();
+    }
+
+    @Override
+    public PathSearchResult searchPaths(PathRequestDTO requested) {
+        long start = System.nanoTime();
+
+        // The whole search works with the same version of the graph even if it's replaced in the meantime.
+        // A graph of the departure time has the same cities and distances, only their weights differ
+        GraphSnapshot graph = timedGraphs.at(this.graph.get(), requested.getDeparture());
+        int startCity = findCity(graph, requested.getStartCity());
+        int destinationCity = findCity(graph, requested.getDestinationCity());
+
+        // the request could be too expensive, then the cheaper one is searched and cached instead
+        PathRequestDTO pathRequest = costEstimator.admit(graph, requested, startCity, destinationCity);
+        boolean downgraded = pathRequest != requested;
+        // Paths within the maximum distance are enumerated with cut-offs by lower bounds.
+        // Otherwise k shortest paths are found by Yen's algorithm, cut-offs aren't tight enough for them
+        boolean allPaths = pathRequest.getK() == null && pathRequest.getMaxDistance() == null;
+        boolean enumerate = allPaths || pathRequest.getMaxDistance() != null;
+        String search = allPaths ? CityMetrics.ALL_PATHS
+                : enumerate ? CityMetrics.BOUNDED_PATHS : CityMetrics.K_SHORTEST_PATHS;
+        checkConnected(graph, startCity, destinationCity, pathRequest, search);
+
+        // paths of graphs of some time of day are not cached, they would push out the others
+        List<PathResponse> cached = graph.isTimed() ? null : pathCache.get(pathRequest, graph.weightsVersion());
+        if (cached != null) {
+            metrics.recordSearch(search, start, 0L, cached.size(), false);
+            return new PathSearchResult(cached, graph.version(), false, downgraded);
+        }
+
+        List<PathResponse> result = new ArrayList<>();
+        boolean truncated = false;
+        long expandedCities;
 
-            CityDto startCity = cachedCities.get(pathRequest.getStartCity());
-            if (startCity == null) {
-                throw new UnknownCityException(String.format("%s is unknown in the system", pathRequest.getStartCity()));
+        if (enumerate) {
+            PathEnumeration enumeration = new PathEnumeration(graph, destinationCity, maxPaths, searchTimeout,
+                    pathRequest.getK(), pathRequest.getMaxDistance());
+            result.addAll(enumeration.findPaths(startCity, searchPool));
+            result.sort(Comparator.comparing(PathResponse::getDistance));
+            truncated = enumeration.isTruncated();
+            expandedCities = enumeration.expandedCities();
+            if (truncated) {
+                logger.warn("search of paths between {} and {} was truncated, {} paths were found",
+                        pathRequest.getStartCity(), pathRequest.getDestinationCity(), result.size());
             }
+        } else {
+            // paths are produced already sorted by distance, so we stop as soon as we have enough of them
+            KShortestPaths shortestPaths = new KShortestPaths(graph, startCity, destinationCity, null);
+            while (result.size() < pathRequest.getK() && shortestPaths.hasNext()) {
+                result.add(shortestPaths.next());
+            }
+            expandedCities = shortestPaths.expandedCities();
+        }
+
+        metrics.recordSearch(search, start, expandedCities, result.size(), truncated);
+        if (result.isEmpty()) {
+            throw pathNotExists(pathRequest);
+        }
+
+        // a truncated result depends on timing, so the next request should try again
+        if (!truncated && !graph.isTimed()) {
+            pathCache.put(pathRequest, graph.weightsVersion(), result);
+        }
+        return new PathSearchResult(result, graph.version(), truncated, downgraded);
+    }
+
+    @Override
+    public PathStream streamPaths(PathRequestDTO requested) {
+        GraphSnapshot graph = timedGraphs.at(this.graph.get(), requested.getDeparture());
+        int startCity = findCity(graph, requested.getStartCity());
+        int destinationCity = findCity(graph, requested.getDestinationCity());
+        PathRequestDTO pathRequest = costEstimator.admit(graph, requested, startCity, destinationCity);
+        checkConnected(graph, startCity, destinationCity, pathRequest, CityMetrics.STREAM);
+
+        KShortestPaths shortestPaths = new KShortestPaths(graph, startCity, destinationCity,
+                pathRequest.getMaxDistance());
+        // the first path is searched right away, so that the caller gets an error before it starts streaming
+        if (!shortestPaths.hasNext()) {
+            throw pathNotExists(pathRequest);
+        }
 
-            CityDto destinationCity = cachedCities.get(pathRequest.getDestinationCity());
-            if (destinationCity == null) {
-                throw new UnknownCityException(String.format("%s is unknown in the system", pathRequest.getDestinationCity()));
+        int limit = pathRequest.getK() == null ? Integer.MAX_VALUE : pathRequest.getK();
+        return new PathStream(shortestPaths, graph.version(), limit, pathRequest != requested);
+    }
+
+    @Override
+    public PathSearchResult findShortestPath(PathRequestDTO pathRequest, ShortestPathAlgorithm algorithm) {
+        long start = System.nanoTime();
+        GraphSnapshot graph = timedGraphs.at(this.graph.get(), pathRequest.getDeparture());
+        int startCity = findCity(graph, pathRequest.getStartCity());
+        int destinationCity = findCity(graph, pathRequest.getDestinationCity());
+        checkConnected(graph, startCity, destinationCity, pathRequest, CityMetrics.SHORTEST_PATH);
+
+        // The precomputed index gives the exact answer, so the algorithm doesn't matter when it's ready.
+        // Nothing is precomputed for graphs of some time of day, they are searched on-line
+        DistanceIndex distanceIndex = distanceIndexUpdater.get(graph);
+        if (distanceIndex != null) {
+            PathResponse path = distanceIndex.path(startCity, destinationCity);
+            metrics.recordSearch(CityMetrics.SHORTEST_PATH, start, 0L, path == null ? 0 : 1, false);
+            if (path == null) {
+                throw pathNotExists(pathRequest);
+            }
+            return new PathSearchResult(Collections.singletonList(path), graph.version());
+        }
+
+        // so does the contraction hierarchy, it's used for graphs which are too big for the index
+        ContractionHierarchy hierarchy = contractionHierarchyUpdater.get(graph);
+        if (hierarchy != null) {
+            ContractionHierarchySearch search = hierarchy.search();
+            PathResponse path = search.shortestPath(graph, startCity, destinationCity);
+            metrics.recordSearch(CityMetrics.SHORTEST_PATH, start, search.expandedCities(), path == null ? 0 : 1, false);
+            if (path == null) {
+                throw pathNotExists(pathRequest);
             }
+            return new PathSearchResult(Collections.singletonList(path), graph.version());
+        }
 
-            List<PathResponse> result = new ArrayList<>();
+        ShortestPathSearch search = new ShortestPathSearch(graph);
+        PathResponse path = algorithm == ShortestPathAlgorithm.ASTAR
+                ? search.aStar(startCity, destinationCity, distancePerKm)
+                : search.bidirectional(startCity, destinationCity);
+        metrics.recordSearch(CityMetrics.SHORTEST_PATH, start, search.expandedCities(), path == null ? 0 : 1, false);
+        if (path == null) {
+            throw pathNotExists(pathRequest);
+        }
 
-            List<String> initialPath = new ArrayList<>();
-            initialPath.add(pathRequest.getStartCity());
-            findPath(startCity, destinationCity, initialPath, 0L, result);
+        return new PathSearchResult(Collections.singletonList(path), graph.version());
+    }
 
-            if (result.isEmpty()) {
-                throw new PathNotExistsException(String.format("Unfortunately, there is no path between %s and %s",
-                        pathRequest.getStartCity(), pathRequest.getDestinationCity()));
+    @Override
+    public PathBatchResult findShortestPaths(List<CityPairDTO> pairs) {
+        long start = System.nanoTime();
+        GraphSnapshot graph = this.graph.get();
+        PathBatchItemDTO[] results = new PathBatchItemDTO[pairs.size()];
+        int[] destinationCities = new int[pairs.size()];
+
+        // Pairs are grouped by the start city, so one search from every start city answers all its pairs.
+        // A pair with an unknown city doesn't fail the whole batch, it just gets its own error
+        Map<Integer, List<Integer>> pairsByStart = new HashMap<>();
+        for (int i = 0; i < pairs.size(); i++) {
+            CityPairDTO pair = pairs.get(i);
+            int startCity = graph.idOf(pair.getStartCity());
+            destinationCities[i] = graph.idOf(pair.getDestinationCity());
+            if (startCity < 0 || destinationCities[i] < 0) {
+                String unknownCity = startCity < 0 ? pair.getStartCity() : pair.getDestinationCity();
+                results[i] = new PathBatchItemDTO(pair.getStartCity(), pair.getDestinationCity(), null,
+                        unknownCityMessage(unknownCity));
+                continue;
             }
+            pairsByStart.computeIfAbsent(startCity, city -> new ArrayList<>()).add(i);
+        }
 
-            result.sort(Comparator.comparing(PathResponse::getDistance));
-            return result;
-        } finally {
-            readLock.unlock();
+        DistanceIndex distanceIndex = distanceIndexUpdater.get(graph);
+        AtomicLong expandedCities = new AtomicLong();
+        List<ForkJoinTask<?>> searches = new ArrayList<>(pairsByStart.size());
+        for (Map.Entry<Integer, List<Integer>> group : pairsByStart.entrySet()) {
+            // every search writes only results of its own pairs
+            searches.add(searchPool.submit(() -> {
+                int startCity = group.getKey();
+                List<Integer> indexes = group.getValue();
+                ShortestPathTree tree = null;
+                if (distanceIndex == null) {
+                    int[] targetCities = new int[indexes.size()];
+                    for (int j = 0; j < indexes.size(); j++) {
+                        targetCities[j] = destinationCities[indexes.get(j)];
+                    }
+                    tree = ShortestPathTree.search(graph, startCity, targetCities);
+                    expandedCities.addAndGet(tree.expandedCities());
+                }
+
+                for (int index : indexes) {
+                    CityPairDTO pair = pairs.get(index);
+                    PathResponse path = tree != null
+                            ? tree.path(destinationCities[index])
+                            : distanceIndex.path(startCity, destinationCities[index]);
+                    results[index] = new PathBatchItemDTO(pair.getStartCity(), pair.getDestinationCity(), path,
+                            path == null ? pathNotExistsMessage(pair.getStartCity(), pair.getDestinationCity()) : null);
+                }
+            }));
+        }
+        for (ForkJoinTask<?> search : searches) {
+            search.join();
+        }
+
+        int foundPaths = 0;
+        for (PathBatchItemDTO result : results) {
+            if (result.getPath() != null) {
+                foundPaths++;
+            }
         }
+        metrics.recordSearch(CityMetrics.BATCH, start, expandedCities.get(), foundPaths, false);
+        return new PathBatchResult(Arrays.asList(results), graph.version());
     }
 
-    private void findPath(CityDto currentCity, CityDto destinationCity, List<String> currentPath, Long currentDistance,
-                          List<PathResponse> foundPaths) {
-        if (currentCity.equals(destinationCity)) {
-            foundPaths.add(new PathResponse(new ArrayList<>(currentPath), currentDistance));
+    @Override
+    public DistanceMatrix findDistanceMatrix(List<String> origins, List<String> destinations) {
+        long start = System.nanoTime();
+        long cells = (long) origins.size() * destinations.size();
+        if (cells > maxMatrixCells) {
+            throw new RequestTooLargeException(String.format(
+                    "Matrix of %d x %d distances is too large, at most %d distances can be requested at once",
+                    origins.size(), destinations.size(), maxMatrixCells));
         }
 
-        for (Map.Entry<CityDto, Long> adjacentCity : currentCity.getAdjacentCities().entrySet()) {
-            // We expect that there are no two different cities with the same name
-            if (!currentPath.contains(adjacentCity.getKey().getName())) {
-                currentPath.add(adjacentCity.getKey().getName());
-                currentDistance += adjacentCity.getValue();
+        GraphSnapshot graph = this.graph.get();
+        int[] destinationCities = new int[destinations.size()];
+        for (int j = 0; j < destinations.size(); j++) {
+            destinationCities[j] = findCity(graph, destinations.get(j));
+        }
+        // the same origin could be requested several times, but it's searched only once
+        Map<Integer, List<Integer>> rowsByOrigin = new HashMap<>();
+        for (int i = 0; i < origins.size(); i++) {
+            rowsByOrigin.computeIfAbsent(findCity(graph, origins.get(i)), city -> new ArrayList<>()).add(i);
+        }
 
-                findPath(adjacentCity.getKey(), destinationCity, currentPath, currentDistance, foundPaths);
+        long[] distances = new long[(int) cells];
+        int columns = destinations.size();
+        DistanceIndex distanceIndex = distanceIndexUpdater.get(graph);
+        AtomicLong expandedCities = new AtomicLong();
+        List<ForkJoinTask<?>> searches = new ArrayList<>(rowsByOrigin.size());
+        for (Map.Entry<Integer, List<Integer>> origin : rowsByOrigin.entrySet()) {
+            // every search writes only rows of its own origin
+            searches.add(searchPool.submit(() -> {
+                int originCity = origin.getKey();
+                int firstRow = origin.getValue().get(0) * columns;
+                if (distanceIndex != null) {
+                    for (int j = 0; j < columns; j++) {
+                        distances[firstRow + j] = distanceIndex.distance(originCity, destinationCities[j]);
+                    }
+                } else {
+                    ShortestPathTree tree = ShortestPathTree.search(graph, originCity, destinationCities);
+                    expandedCities.addAndGet(tree.expandedCities());
+                    for (int j = 0; j < columns; j++) {
+                        distances[firstRow + j] = tree.distance(destinationCities[j]);
+                    }
+                }
+                for (int k = 1; k < origin.getValue().size(); k++) {
+                    System.arraycopy(distances, firstRow, distances, origin.getValue().get(k) * columns, columns);
+                }
+            }));
+        }
+        for (ForkJoinTask<?> search : searches) {
+            search.join();
+        }
 
-                currentPath.remove(adjacentCity.getKey().getName());
-                currentDistance -= adjacentCity.getValue();
+        int reachable = 0;
+        for (long distance : distances) {
+            if (distance != DistanceMatrix.UNREACHABLE) {
+                reachable++;
             }
         }
+        metrics.recordSearch(CityMetrics.MATRIX, start, expandedCities.get(), reachable, false);
+        return new DistanceMatrix(origins, destinations, distances, graph.version());
     }
 
-    private City findOrCreateCity(String cityName) {
-        Optional<City> cityA = cityRepo.findByName(cityName);
+    @Override
+    public long estimateCost(PathRequestDTO pathRequest) {
+        GraphSnapshot graph = this.graph.get();
+        int startCity = findCity(graph, pathRequest.getStartCity());
+        int destinationCity = findCity(graph, pathRequest.getDestinationCity());
+        // a request which is going to be rejected costs nothing, the search itself rejects it
+        PathRequestDTO admitted = costEstimator.plan(graph, pathRequest, startCity, destinationCity);
+        return admitted == null ? 0L : costEstimator.pathsCost(graph, admitted, startCity, destinationCity);
+    }
 
-        if (cityA.isPresent()) {
-            return cityA.get();
-        } else {
-            City freshCity = new City();
-            freshCity.setName(cityName);
-            return cityRepo.save(freshCity);
+    @Override
+    public long estimateSearchCost(Collection<String> startCities) {
+        GraphSnapshot graph = this.graph.get();
+        long cost = 0;
+        // the same city is searched only once
+        for (String name : new HashSet<>(startCities)) {
+            int city = graph.idOf(name);
+            if (city >= 0) {
+                cost += costEstimator.searchCost(graph, city);
+            }
         }
+        return cost;
     }
 
     @Override
+    public ReachabilityResult findReachable(String name) {
+        GraphSnapshot graph = this.graph.get();
+        int city = findCity(graph, name);
+        ComponentIndex components = graph.components();
+        ReachabilityDTO reachability = new ReachabilityDTO(name, graph.nameOf(components.component(city)),
+                components.reachableCities(city), components.reachableEdges(city));
+        return new ReachabilityResult(reachability, graph.version());
+    }
+
+    private int findCity(GraphSnapshot graph, String name) {
+        int city = graph.idOf(name);
+        if (city < 0) {
+            throw new UnknownCityException(unknownCityMessage(name));
+        }
+        return city;
+    }
+
+    // Cities of different components have no path between them, the component index tells it without any search
+    private void checkConnected(GraphSnapshot graph, int startCity, int destinationCity, PathRequestDTO pathRequest,
+                                String search) {
+        if (!graph.components().isConnected(startCity, destinationCity)) {
+            metrics.recordUnreachable(search);
+            throw pathNotExists(pathRequest);
+        }
+    }
+
+    private PathNotExistsException pathNotExists(PathRequestDTO pathRequest) {
+        return new PathNotExistsException(pathNotExistsMessage(pathRequest.getStartCity(),
+                pathRequest.getDestinationCity()));
+    }
+
+    private static String unknownCityMessage(String name) {
+        return String.format("%s is unknown in the system", name);
+    }
+
+    private static String pathNotExistsMessage(String startCity, String destinationCity) {
+        return String.format("Unfortunately, there is no path between %s and %s", startCity, destinationCity);
+    }
+
+    @Override
+    @Transactional
     public void deleteAllDistances() {
-        try {
-            writeLock.lock();
+        distanceProfileRepo.deleteAllInBatch();
+        distanceRepo.deleteAll();
+        GraphDelta delta = new GraphDelta().setCleared(true).setRevision(graphRevisionRepo.incrementRevision());
+        publishChange(delta);
+
+        afterCommit(() -> applyInOrder(delta));
+    }
+
+
+    private static class CityPair {
+        private final long first;
+        private final long second;
+
+        CityPair(long first, long second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CityPair pair = (CityPair) o;
+            return first == pair.first && second == pair.second;
+        }
 
-            distanceRepo.deleteAll();
-            cachedCities = new HashMap<>();
-        } finally {
-            writeLock.unlock();
+        @Override public int hashCode() {
+            return Objects.hash(first, second);
         }
     }
 
     // use only for testing
-    Map<String, CityDto> getCachedCities() {
-        return this.cachedCities;
+    GraphSnapshot getGraph() {
+        return this.graph.get();
     }
 }
@@ -0,0 +1,120 @@
+package com.itechart.cityservice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.itechart.cityservice.exception.RateLimitedException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * Limits the rate of requests of every client by their estimated cost (see {@link QueryCostEstimator}), not by
+ * their number, so a client which sends expensive searches runs out of its budget sooner.
+ * Every client has a bucket which is refilled at a constant rate up to its capacity. A request is accepted
+ * if the bucket isn't empty, and its whole cost is taken even if the bucket goes negative, so one expensive
+ * request makes the client wait until the debt is paid off.
+ */
+@Component
+public class ClientRateLimiter {
+    private final double costPerSecond;
+    private final double burst;
+    private final CityMetrics metrics;
+    // buckets are dropped when they would be refilled up to the burst anyway, a bucket in debt is kept until
+    // the debt is paid off
+    private final Cache<String, Bucket> buckets;
+
+    public ClientRateLimiter(@Value("${cityservice.rate-limit.cost-per-second:100000000}") double costPerSecond,
+                             @Value("${cityservice.rate-limit.burst:1000000000}") double burst,
+                             @Value("${cityservice.rate-limit.max-clients:100000}") long maxClients,
+                             CityMetrics metrics) {
+        this.costPerSecond = costPerSecond;
+        this.burst = burst;
+        this.metrics = metrics;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxClients)
+                .expireAfter(new Expiry<String, Bucket>() {
+                    @Override
+                    public long expireAfterCreate(String client, Bucket bucket, long currentTime) {
+                        return bucket.untilFull(currentTime, costPerSecond, burst);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String client, Bucket bucket, long currentTime,
+                                                  long currentDuration) {
+                        return bucket.untilFull(currentTime, costPerSecond, burst);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String client, Bucket bucket, long currentTime,
+                                                long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    // throws RateLimitedException if the client has spent its budget, 0 cost per second turns limits off
+    public void acquire(String client, long cost) {
+        if (costPerSecond <= 0) {
+            return;
+        }
+
+        // the bucket is changed inside of compute(), so its expiration follows the tokens which are left
+        double[] debt = new double[1];
+        buckets.asMap().compute(client, (key, bucket) -> {
+            Bucket taken = bucket == null ? new Bucket(burst) : bucket;
+            debt[0] = taken.take(cost, costPerSecond, burst);
+            return taken;
+        });
+        if (debt[0] > 0) {
+            metrics.recordRateLimited();
+            throw new RateLimitedException(String.format("Client %s has sent too many expensive requests, " +
+                    "the request can't be accepted now", client), (long) Math.ceil(debt[0] / costPerSecond));
+        }
+    }
+
+    // gives back the cost of a request which was accepted but not handled
+    public void refund(String client, long cost) {
+        if (costPerSecond <= 0) {
+            return;
+        }
+
+        buckets.asMap().computeIfPresent(client, (key, bucket) -> {
+            bucket.refund(cost, burst);
+            return bucket;
+        });
+    }
+
+    private static class Bucket {
+        private double tokens;
+        private long refilled = System.nanoTime();
+
+        Bucket(double tokens) {
+            this.tokens = tokens;
+        }
+
+        // returns how many tokens are missing, 0 if the cost was taken
+        synchronized double take(long cost, double costPerSecond, double burst) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilled) / 1e9 * costPerSecond);
+            refilled = now;
+            // the request is accepted as soon as the bucket has anything in it
+            if (tokens <= 0) {
+                return 1 - tokens;
+            }
+            tokens -= cost;
+            return 0;
+        }
+
+        synchronized void refund(long cost, double burst) {
+            tokens = Math.min(burst, tokens + cost);
+        }
+
+        // nanoseconds after the time until the bucket is refilled up to the burst
+        synchronized long untilFull(long time, double costPerSecond, double burst) {
+            long full = refilled + (long) Math.ceil((burst - tokens) / costPerSecond * 1e9);
+            return Math.max(0L, full - time);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.itechart.cityservice.service;
+
+import com.itechart.cityservice.graph.ContractionHierarchy;
+import com.itechart.cityservice.graph.ContractionHierarchyFile;
+import com.itechart.cityservice.graph.GraphSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the contraction hierarchy of the cached graph up to date. The hierarchy is built in the background
+ * and written to the disk, so the next start reads it instead of building it again. After the graph is changed,
+ * it's contracted again in the order of the previous hierarchy. Until the hierarchy of the latest graph is ready,
+ * paths are searched without it.
+ */
+@Component
+public class ContractionHierarchyUpdater {
+    private static final Logger logger = LoggerFactory.getLogger(ContractionHierarchyUpdater.class);
+
+    private final boolean enabled;
+    // null if the hierarchy is kept only in memory
+    private final Path file;
+    private final ExecutorService scheduler = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "contraction-hierarchy-updater");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicReference<IndexedGraph> current = new AtomicReference<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    public ContractionHierarchyUpdater(@Value("${cityservice.contraction-hierarchy.enabled:false}") boolean enabled,
+                                       @Value("${cityservice.contraction-hierarchy.file:}") String file) {
+        this.enabled = enabled;
+        this.file = file.isEmpty() ? null : Paths.get(file);
+    }
+
+    // returns null if there is no hierarchy for these weights of the graph
+    public ContractionHierarchy get(GraphSnapshot graph) {
+        IndexedGraph indexed = current.get();
+        return indexed != null && indexed.graph.weightsVersion() == graph.weightsVersion() ? indexed.hierarchy : null;
+    }
+
+    // Rebuilds are coalesced: if several graphs are published while the hierarchy is being built,
+    // then only the latest of them is contracted afterwards
+    public void rebuild(Supplier<GraphSnapshot> graphs) {
+        if (!enabled || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        scheduler.execute(() -> {
+            scheduled.set(false);
+            GraphSnapshot graph = graphs.get();
+            IndexedGraph previous = current.get();
+            if (previous != null && previous.graph.weightsVersion() == graph.weightsVersion()) {
+                return;
+            }
+
+            try {
+                long start = System.currentTimeMillis();
+                ContractionHierarchy hierarchy = previous == null ? load(graph) : null;
+                if (hierarchy != null) {
+                    current.set(new IndexedGraph(graph, hierarchy));
+                    logger.info("contraction hierarchy of revision {} was loaded from {} in {} ms",
+                            hierarchy.revision(), file, System.currentTimeMillis() - start);
+                    return;
+                }
+
+                hierarchy = previous == null
+                        ? ContractionHierarchy.build(graph)
+                        : ContractionHierarchy.rebuild(graph, order(graph, previous));
+                current.set(new IndexedGraph(graph, hierarchy));
+                logger.info("contraction hierarchy of {} cities with {} upward edges was built for version {} in {} ms",
+                        graph.size(), hierarchy.edgeCount(), graph.version(), System.currentTimeMillis() - start);
+
+                if (file != null) {
+                    ContractionHierarchyFile.write(hierarchy, file);
+                }
+            } catch (Exception e) {
+                logger.error("Some problem occurred while building contraction hierarchy. " +
+                        "Paths are searched without it now", e);
+            }
+        });
+    }
+
+    // the stored hierarchy can be used only if it was built for the same revision of the graph with the same ids
+    private ContractionHierarchy load(GraphSnapshot graph) {
+        if (file == null || !Files.exists(file)) {
+            return null;
+        }
+
+        try {
+            ContractionHierarchy hierarchy = ContractionHierarchyFile.read(file);
+            if (hierarchy.matches(graph)) {
+                return hierarchy;
+            }
+            logger.info("stored contraction hierarchy of revision {} doesn't match cities of the graph of revision {}, " +
+                    "so it's built again", hierarchy.revision(), graph.revision());
+        } catch (Exception e) {
+            logger.warn("contraction hierarchy can't be loaded from {}, so it's built again", file, e);
+        }
+        return null;
+    }
+
+    // Cities keep their places in the previous order, new cities are contracted last.
+    // Cities are matched by names, because ids could change when the graph is reloaded
+    private static int[] order(GraphSnapshot graph, IndexedGraph previous) {
+        int[] order = new int[graph.size()];
+        boolean[] placed = new boolean[graph.size()];
+        int count = 0;
+        for (int previousCity : previous.hierarchy.order()) {
+            int city = graph.idOf(previous.graph.nameOf(previousCity));
+            if (city >= 0) {
+                order[count++] = city;
+                placed[city] = true;
+            }
+        }
+        for (int city = 0; city < graph.size(); city++) {
+            if (!placed[city]) {
+                order[count++] = city;
+            }
+        }
+        return order;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private static class IndexedGraph {
+        private final GraphSnapshot graph;
+        private final ContractionHierarchy hierarchy;
+
+        IndexedGraph(GraphSnapshot graph, ContractionHierarchy hierarchy) {
+            this.graph = graph;
+            this.hierarchy = hierarchy;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.itechart.cityservice.service;
+
+import com.itechart.cityservice.graph.DistanceIndex;
+import com.itechart.cityservice.graph.GraphSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the all-pairs distance index of the cached graph up to date. The index is rebuilt in the background
+ * and is replaced only when the new one is ready, searches fall back to the on-line search meanwhile.
+ */
+@Component
+public class DistanceIndexUpdater {
+    private static final Logger logger = LoggerFactory.getLogger(DistanceIndexUpdater.class);
+
+    private final int maxCities;
+    private final ForkJoinPool pool;
+    private final ExecutorService scheduler = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "distance-index-updater");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicReference<DistanceIndex> index = new AtomicReference<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // The index takes 12 * cities^2 bytes, so it's built only for graphs which are not bigger than "maxCities"
+    public DistanceIndexUpdater(@Value("${cityservice.distance-index.max-cities:2000}") int maxCities,
+                                @Value("${cityservice.distance-index.parallelism:0}") int parallelism) {
+        this.maxCities = Math.min(maxCities, 46340);
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    // returns null if there is no index for these weights of the graph
+    public DistanceIndex get(GraphSnapshot graph) {
+        DistanceIndex current = index.get();
+        return current != null && current.weightsVersion() == graph.weightsVersion() ? current : null;
+    }
+
+    // Rebuilds are coalesced: if several graphs are published while the index is being built,
+    // then only the latest of them is indexed afterwards
+    public void rebuild(Supplier<GraphSnapshot> graphs) {
+        if (maxCities <= 0 || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        scheduler.execute(() -> {
+            scheduled.set(false);
+            GraphSnapshot graph = graphs.get();
+            DistanceIndex current = index.get();
+            if (current != null && current.weightsVersion() == graph.weightsVersion()) {
+                return;
+            }
+            if (graph.size() > maxCities) {
+                index.set(null);
+                return;
+            }
+
+            try {
+                long start = System.currentTimeMillis();
+                index.set(DistanceIndex.build(graph, pool));
+                logger.info("distance index of {} cities was built for version {} in {} ms",
+                        graph.size(), graph.version(), System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                logger.error("Some problem occurred while building distance index. Paths are searched on-line now", e);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        pool.shutdownNow();
+    }
+}
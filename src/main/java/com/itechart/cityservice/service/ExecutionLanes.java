@@ -0,0 +1,91 @@
+package com.itechart.cityservice.service;
+
+import com.itechart.cityservice.exception.OverloadedException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Isolated thread pools for handling of requests. Path queries are CPU-bound, so they run on the query lane
+ * which has a thread per processor. Requests which wait for the database run on the database lane.
+ * So slow transactions can't take threads of the web server away from fast lookups.
+ * Queues of both lanes are bounded: a request which doesn't fit is rejected right away instead of waiting long.
+ */
+@Component
+public class ExecutionLanes {
+    public static final String QUERY = "query";
+    public static final String DATABASE = "database";
+    private static final long RETRY_AFTER_SECONDS = 1;
+
+    private final CityMetrics metrics;
+    private final ThreadPoolExecutor query;
+    private final ThreadPoolExecutor database;
+
+    public ExecutionLanes(CityMetrics metrics,
+                          @Value("${cityservice.lanes.query.threads:0}") int queryThreads,
+                          @Value("${cityservice.lanes.query.queue-capacity:200}") int queryQueueCapacity,
+                          @Value("${cityservice.lanes.database.threads:8}") int databaseThreads,
+                          @Value("${cityservice.lanes.database.queue-capacity:50}") int databaseQueueCapacity) {
+        this.metrics = metrics;
+        this.query = newLane(QUERY, queryThreads > 0 ? queryThreads : Runtime.getRuntime().availableProcessors(),
+                queryQueueCapacity);
+        this.database = newLane(DATABASE, databaseThreads, databaseQueueCapacity);
+    }
+
+    private ThreadPoolExecutor newLane(String lane, int threads, int queueCapacity) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, lane + "-lane-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        metrics.bindLane(lane, executor);
+        return executor;
+    }
+
+    // throws OverloadedException if the query lane is saturated
+    public <T> CompletableFuture<T> query(Supplier<T> task) {
+        return submit(QUERY, query, task);
+    }
+
+    // throws OverloadedException if the database lane is saturated
+    public <T> CompletableFuture<T> database(Supplier<T> task) {
+        return submit(DATABASE, database, task);
+    }
+
+    // The future is completed with exceptions of the task as they are, so they are handled like synchronous ones
+    private <T> CompletableFuture<T> submit(String lane, ThreadPoolExecutor executor, Supplier<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long submitted = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                metrics.recordLaneWait(lane, submitted);
+                try {
+                    result.complete(task.get());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            metrics.recordLaneRejection(lane);
+            throw new OverloadedException(String.format("Too many requests are waiting in the %s lane, " +
+                    "the request can't be accepted now", lane), RETRY_AFTER_SECONDS);
+        }
+        return result;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        query.shutdownNow();
+        database.shutdownNow();
+    }
+}
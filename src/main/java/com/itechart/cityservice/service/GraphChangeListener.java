@@ -0,0 +1,102 @@
+package com.itechart.cityservice.service;
+
+import com.itechart.cityservice.repo.GraphChangeRepoCustom;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.function.LongConsumer;
+
+/**
+ * Listens to notifications about committed revisions of the graph, which are sent by all instances of the service
+ * (see GraphChangeRepo). Every notification is passed to the callback with the notified revision, so the instance
+ * can read the changes from the outbox and apply them to its cached graph. The outbox is also checked once per
+ * poll interval and after every reconnection, because notifications are lost while nobody listens.
+ * The listener keeps its own connection to the database.
+ */
+@Component
+public class GraphChangeListener {
+    // passed to the callback when the outbox is checked without a notification
+    public static final long UNKNOWN_REVISION = Long.MAX_VALUE;
+    private static final Logger logger = LoggerFactory.getLogger(GraphChangeListener.class);
+
+    private final DataSource dataSource;
+    private final boolean enabled;
+    private final int pollInterval;
+    private volatile boolean running = true;
+    private Thread thread;
+
+    public GraphChangeListener(DataSource dataSource,
+                               @Value("${cityservice.change-feed.enabled:true}") boolean enabled,
+                               @Value("${cityservice.change-feed.poll-interval-ms:5000}") int pollInterval) {
+        this.dataSource = dataSource;
+        this.enabled = enabled;
+        this.pollInterval = pollInterval;
+    }
+
+    // if the feed is off, changes are neither written to the outbox nor read from it
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized void start(LongConsumer onRevision) {
+        if (!enabled || thread != null) {
+            return;
+        }
+        thread = new Thread(() -> listen(onRevision), "graph-change-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void listen(LongConsumer onRevision) {
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                PGConnection notifications = connection.unwrap(PGConnection.class);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + GraphChangeRepoCustom.CHANNEL);
+                }
+                onRevision.accept(UNKNOWN_REVISION);
+
+                while (running) {
+                    PGNotification[] received = notifications.getNotifications(pollInterval);
+                    if (received == null || received.length == 0) {
+                        onRevision.accept(UNKNOWN_REVISION);
+                        continue;
+                    }
+                    // the latest revision is enough, all revisions before it are read together
+                    long latest = 0;
+                    for (PGNotification notification : received) {
+                        latest = Math.max(latest, Long.parseLong(notification.getParameter()));
+                    }
+                    onRevision.accept(latest);
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    return;
+                }
+                logger.error("Connection which listens to changes of the graph was lost, it's opened again", e);
+                try {
+                    Thread.sleep(pollInterval);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+}
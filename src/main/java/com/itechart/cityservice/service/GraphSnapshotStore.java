@@ -0,0 +1,94 @@
+package com.itechart.cityservice.service;
+
+import com.itechart.cityservice.graph.GraphSnapshot;
+import com.itechart.cityservice.graph.GraphSnapshotFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a copy of the cached graph on the local disk, so that the service can start without loading
+ * all distances from the database. The file is written in the background after the graph is changed.
+ */
+@Component
+public class GraphSnapshotStore {
+    private static final Logger logger = LoggerFactory.getLogger(GraphSnapshotStore.class);
+
+    // null if snapshots are turned off
+    private final Path file;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "graph-snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    // Graph which is in the file now. It's compared by identity: a reloaded graph could have the same revision
+    // as the written one, but other distances if the written one was broken
+    private volatile GraphSnapshot written;
+
+    public GraphSnapshotStore(@Value("${cityservice.snapshot.file:}") String file) {
+        this.file = file.isEmpty() ? null : Paths.get(file);
+    }
+
+    // returns null if there is no snapshot which can be used
+    public GraphSnapshot load(long version) {
+        if (file == null || !Files.exists(file)) {
+            return null;
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            GraphSnapshot graph = GraphSnapshotFile.read(file, version);
+            logger.info("graph snapshot of revision {} with {} cities was loaded from {} in {} ms",
+                    graph.revision(), graph.size(), file, System.currentTimeMillis() - start);
+            // the service starts with this graph, it doesn't need to be written again
+            written = graph;
+            return graph;
+        } catch (Exception e) {
+            logger.warn("graph snapshot can't be loaded from {}, so the graph is loaded from the database", file, e);
+            return null;
+        }
+    }
+
+    // Writes are coalesced: if the graph is changed several times while the file is being written,
+    // then only the latest version is written afterwards
+    public void save(Supplier<GraphSnapshot> graphs) {
+        if (file == null || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        writer.execute(() -> {
+            scheduled.set(false);
+            GraphSnapshot graph = graphs.get();
+            if (graph == written) {
+                return;
+            }
+
+            try {
+                GraphSnapshotFile.write(graph, file);
+                written = graph;
+                logger.debug("graph snapshot of revision {} was written to {}", graph.revision(), file);
+            } catch (Exception e) {
+                logger.error("Some problem occurred while writing graph snapshot to {}", file, e);
+            }
+        });
+    }
+
+    // the last scheduled snapshot is still written, so the next start doesn't need to load too much
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        writer.shutdown();
+        writer.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,166 @@
+package com.itechart.cityservice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.itechart.cityservice.dto.DistanceDTO;
+import com.itechart.cityservice.dto.IngestionBatchDTO;
+import com.itechart.cityservice.dto.IngestionStatus;
+import com.itechart.cityservice.exception.InvalidDistancesException;
+import com.itechart.cityservice.exception.OverloadedException;
+import com.itechart.cityservice.exception.RequestTooLargeException;
+import com.itechart.cityservice.exception.UnknownBatchException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Write-behind queue of distances. Batches are accepted right away and a single writer thread persists them.
+ * The writer takes all waiting batches (up to the transaction limit) and writes them in one transaction,
+ * so the cached graph is updated once for all of them.
+ */
+@Component
+public class IngestionQueue {
+    private static final Logger logger = LoggerFactory.getLogger(IngestionQueue.class);
+    private static final long RETRY_AFTER_SECONDS = 1;
+
+    private final CityService cityService;
+    private final int capacity;
+    private final int maxTransactionSize;
+
+    private final BlockingQueue<Batch> queue = new LinkedBlockingQueue<>();
+    // distances in the queue, the capacity is counted in distances because batches could have any size
+    private final AtomicInteger queuedDistances = new AtomicInteger();
+    // statuses of finished batches are kept for some time, so that clients can check them
+    private final Cache<String, IngestionBatchDTO> statuses;
+    private final Thread writer = new Thread(this::writeBatches, "ingestion-writer");
+
+    public IngestionQueue(CityService cityService, CityMetrics metrics,
+                          @Value("${cityservice.ingestion.queue-capacity:100000}") int capacity,
+                          @Value("${cityservice.ingestion.max-transaction-size:50000}") int maxTransactionSize,
+                          @Value("${cityservice.ingestion.status-ttl-minutes:60}") long statusTtlMinutes) {
+        this.cityService = cityService;
+        this.capacity = capacity;
+        this.maxTransactionSize = maxTransactionSize;
+        this.statuses = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMinutes(statusTtlMinutes))
+                .build();
+        metrics.bindIngestionQueue(queuedDistances::get);
+    }
+
+    @PostConstruct
+    public void start() {
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // batches which are still in the queue are lost, their clients will see them as unknown
+    @PreDestroy
+    public void stop() {
+        writer.interrupt();
+    }
+
+    public IngestionBatchDTO submit(List<DistanceDTO> distances) {
+        // such batches would never be accepted, so it's not worth retrying them
+        if (distances.isEmpty()) {
+            throw new InvalidDistancesException("Batch has no distances", null);
+        }
+        if (distances.size() > capacity) {
+            throw new RequestTooLargeException(String.format("Batch has %d distances, but the ingestion queue " +
+                    "can't take more than %d distances at once", distances.size(), capacity));
+        }
+        int queued = queuedDistances.addAndGet(distances.size());
+        if (queued > capacity) {
+            queuedDistances.addAndGet(-distances.size());
+            throw new OverloadedException(String.format("Ingestion queue is full, %d distances can't be accepted now",
+                    distances.size()), RETRY_AFTER_SECONDS);
+        }
+
+        Batch batch = new Batch(UUID.randomUUID().toString(), distances);
+        IngestionBatchDTO status = new IngestionBatchDTO(batch.id, IngestionStatus.QUEUED, distances.size(), null);
+        statuses.put(batch.id, status);
+        queue.add(batch);
+        return status;
+    }
+
+    public IngestionBatchDTO getStatus(String id) {
+        IngestionBatchDTO status = statuses.getIfPresent(id);
+        if (status == null) {
+            throw new UnknownBatchException(String.format("Batch %s is unknown", id));
+        }
+        return status;
+    }
+
+    private void writeBatches() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Batch> batches = new ArrayList<>();
+            try {
+                batches.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            // only this thread takes batches, so the peeked batch is still there
+            int size = batches.get(0).distances.size();
+            Batch next;
+            while ((next = queue.peek()) != null && size + next.distances.size() <= maxTransactionSize) {
+                batches.add(queue.poll());
+                size += next.distances.size();
+            }
+
+            write(batches);
+            queuedDistances.addAndGet(-size);
+        }
+    }
+
+    private void write(List<Batch> batches) {
+        setStatus(batches, IngestionStatus.WRITING, null);
+        List<DistanceDTO> distances = new ArrayList<>();
+        for (Batch batch : batches) {
+            distances.addAll(batch.distances);
+        }
+
+        try {
+            cityService.addDistances(distances);
+            setStatus(batches, IngestionStatus.DONE, null);
+            logger.debug("{} batches with {} distances were written", batches.size(), distances.size());
+        } catch (Exception e) {
+            if (batches.size() == 1) {
+                logger.warn("batch {} can't be written", batches.get(0).id, e);
+                setStatus(batches, IngestionStatus.FAILED, e.getMessage());
+                return;
+            }
+
+            // the whole transaction is rolled back, so every batch is written separately to find the broken ones
+            for (Batch batch : batches) {
+                write(List.of(batch));
+            }
+        }
+    }
+
+    private void setStatus(List<Batch> batches, IngestionStatus status, String errorMessage) {
+        for (Batch batch : batches) {
+            statuses.put(batch.id, new IngestionBatchDTO(batch.id, status, batch.distances.size(), errorMessage));
+        }
+    }
+
+    private static class Batch {
+        private final String id;
+        private final List<DistanceDTO> distances;
+
+        Batch(String id, List<DistanceDTO> distances) {
+            this.id = id;
+            this.distances = distances;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.itechart.cityservice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.itechart.cityservice.dto.PathRequestDTO;
+import com.itechart.cityservice.dto.PathResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Bounded cache of path search results. Distances are bidirectional, so paths from A to B and from B to A
+ * share the same entry and the reversed lookup just gets the reversed paths.
+ * Entries are bound to the weights version of the graph which they were built from, so a stale entry is never
+ * returned, while changes which don't touch distances (like coordinates or profiles) keep them.
+ */
+@Component
+public class PathCache {
+    private final Cache<Key, Entry> cache;
+
+    // The size of an entry is the total number of cities in its paths, so a few huge results can't take all memory
+    public PathCache(@Value("${cityservice.path-cache.maximum-weight:1000000}") long maximumWeight,
+                     MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((Key key, Entry entry) -> entry.weight)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "paths");
+    }
+
+    // returns null if there are no paths for this request in the cache
+    public List<PathResponse> get(PathRequestDTO pathRequest, long weightsVersion) {
+        Entry entry = cache.getIfPresent(new Key(pathRequest, weightsVersion));
+        if (entry == null) {
+            return null;
+        }
+        return entry.startCity.equals(pathRequest.getStartCity()) ? entry.paths : reverse(entry.paths);
+    }
+
+    public void put(PathRequestDTO pathRequest, long weightsVersion, List<PathResponse> paths) {
+        cache.put(new Key(pathRequest, weightsVersion), new Entry(pathRequest.getStartCity(), paths));
+    }
+
+    // entries of the previous versions are never returned anyway, but they shouldn't take space
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private static List<PathResponse> reverse(List<PathResponse> paths) {
+        List<PathResponse> result = new ArrayList<>(paths.size());
+        for (PathResponse path : paths) {
+            List<String> cities = new ArrayList<>(path.getPath());
+            Collections.reverse(cities);
+            result.add(new PathResponse(cities, path.getDistance()));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private static class Key {
+        private final String firstCity;
+        private final String secondCity;
+        private final Integer k;
+        private final Long maxDistance;
+        private final long weightsVersion;
+
+        Key(PathRequestDTO pathRequest, long weightsVersion) {
+            String start = pathRequest.getStartCity();
+            String destination = pathRequest.getDestinationCity();
+            boolean ordered = start.compareTo(destination) <= 0;
+            this.firstCity = ordered ? start : destination;
+            this.secondCity = ordered ? destination : start;
+            this.k = pathRequest.getK();
+            this.maxDistance = pathRequest.getMaxDistance();
+            this.weightsVersion = weightsVersion;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return weightsVersion == key.weightsVersion && firstCity.equals(key.firstCity)
+                    && secondCity.equals(key.secondCity) && Objects.equals(k, key.k)
+                    && Objects.equals(maxDistance, key.maxDistance);
+        }
+
+        @Override public int hashCode() {
+            return Objects.hash(firstCity, secondCity, k, maxDistance, weightsVersion);
+        }
+    }
+
+    private static class Entry {
+        // the paths are stored in the direction of the request which has built them
+        private final String startCity;
+        private final List<PathResponse> paths;
+        private final int weight;
+
+        Entry(String startCity, List<PathResponse> paths) {
+            this.startCity = startCity;
+            this.paths = Collections.unmodifiableList(new ArrayList<>(paths));
+            int weight = 0;
+            for (PathResponse path : paths) {
+                weight += path.getPath().size();
+            }
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.itechart.cityservice.service;
+
+import com.itechart.cityservice.dto.PathResponse;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Paths between two cities in ascending order of distance. The next path is computed only when it's requested,
+ * so the caller can stop the search at any moment just by not asking for more paths.
+ */
+public class PathStream implements Iterator<PathResponse> {
+    private final Iterator<PathResponse> paths;
+    private final long graphVersion;
+    private final int limit;
+    private final boolean downgraded;
+    private int returned;
+
+    public PathStream(Iterator<PathResponse> paths, long graphVersion, int limit, boolean downgraded) {
+        this.paths = paths;
+        this.graphVersion = graphVersion;
+        this.limit = limit;
+        this.downgraded = downgraded;
+    }
+
+    public long getGraphVersion() {
+        return graphVersion;
+    }
+
+    // true if the stream of all paths was too expensive, so it's limited to the shortest of them
+    public boolean isDowngraded() {
+        return downgraded;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return returned < limit && paths.hasNext();
+    }
+
+    @Override
+    public PathResponse next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        returned++;
+        return paths.next();
+    }
+}
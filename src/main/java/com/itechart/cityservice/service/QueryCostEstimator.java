@@ -0,0 +1,100 @@
+package com.itechart.cityservice.service;
+
+import com.itechart.cityservice.dto.PathRequestDTO;
+import com.itechart.cityservice.exception.RequestTooLargeException;
+import com.itechart.cityservice.graph.GraphSnapshot;
+import com.itechart.cityservice.graph.ComponentIndex;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Estimates the work of path searches before they start, in cities which they would visit.
+ * Search of all paths can take exponential time on a well connected graph, so a request whose estimate
+ * exceeds the budget is downgraded to the search of the k shortest paths, or rejected if downgrading is turned off.
+ * Estimates are based on the {@link ComponentIndex} of the cached graph, which is kept up to date with the graph.
+ */
+@Component
+public class QueryCostEstimator {
+    // a request which is answered by a lookup in the component index still takes something from the rate limit
+    public static final long LOOKUP_COST = 1L;
+    // 2 ^ 62 paths already exceed any budget, and bigger powers don't fit into long
+    private static final int MAX_CYCLES = 62;
+
+    private final long maxCost;
+    // how many shortest paths are searched instead of all paths, 0 rejects such requests
+    private final int downgradeK;
+    private final CityMetrics metrics;
+
+    public QueryCostEstimator(@Value("${cityservice.admission.max-cost:1000000000}") long maxCost,
+                              @Value("${cityservice.admission.downgrade-k:10}") int downgradeK,
+                              CityMetrics metrics) {
+        this.maxCost = maxCost;
+        this.downgradeK = downgradeK;
+        this.metrics = metrics;
+    }
+
+    // Returns the request which should be searched instead of the given one: the same request if it fits
+    // into the budget or the request of the shortest paths. Throws RequestTooLargeException if it can't be searched
+    public PathRequestDTO admit(GraphSnapshot graph, PathRequestDTO pathRequest, int startCity, int destinationCity) {
+        PathRequestDTO admitted = plan(graph, pathRequest, startCity, destinationCity);
+        if (admitted != null) {
+            if (admitted != pathRequest) {
+                metrics.recordAdmission(CityMetrics.DOWNGRADED);
+            }
+            return admitted;
+        }
+        metrics.recordAdmission(CityMetrics.REJECTED);
+        throw new RequestTooLargeException(String.format("Search of paths between %s and %s is too expensive, " +
+                        "request fewer shortest paths with the \"k\" parameter",
+                pathRequest.getStartCity(), pathRequest.getDestinationCity()));
+    }
+
+    // the same as admit(), but it only tells the decision: returns null if the request would be rejected
+    public PathRequestDTO plan(GraphSnapshot graph, PathRequestDTO pathRequest, int startCity, int destinationCity) {
+        if (pathsCost(graph, pathRequest, startCity, destinationCity) <= maxCost) {
+            return pathRequest;
+        }
+        if (pathRequest.getK() == null && downgradeK > 0) {
+            PathRequestDTO downgraded = new PathRequestDTO(pathRequest.getStartCity(),
+                    pathRequest.getDestinationCity(), downgradeK, pathRequest.getMaxDistance(),
+                    pathRequest.getDeparture());
+            if (pathsCost(graph, downgraded, startCity, destinationCity) <= maxCost) {
+                return downgraded;
+            }
+        }
+        return null;
+    }
+
+    // Every one of the k shortest paths takes a few searches over the reachable part of the graph.
+    // The number of all paths (or paths which are shorter than the limit) is unknown, so it's estimated
+    // by the number of independent cycles, and each path takes a walk over the reachable cities.
+    // Cities of different components are answered by the index without any search
+    public long pathsCost(GraphSnapshot graph, PathRequestDTO pathRequest, int startCity, int destinationCity) {
+        ComponentIndex components = graph.components();
+        if (!components.isConnected(startCity, destinationCity)) {
+            return LOOKUP_COST;
+        }
+        if (pathRequest.getK() != null) {
+            return multiply(pathRequest.getK(), searchCost(components, startCity));
+        }
+        long paths = 1L << Math.min(components.cycles(startCity), MAX_CYCLES);
+        return multiply(paths, components.reachableCities(startCity));
+    }
+
+    // cost of a single search which could visit all cities and distances which are reachable from the start city
+    public long searchCost(GraphSnapshot graph, int startCity) {
+        return searchCost(graph.components(), startCity);
+    }
+
+    private static long searchCost(ComponentIndex components, int startCity) {
+        return components.reachableCities(startCity) + components.reachableEdges(startCity);
+    }
+
+    private static long multiply(long first, long second) {
+        try {
+            return Math.multiplyExact(first, second);
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.itechart.cityservice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.itechart.cityservice.graph.GraphSnapshot;
+import com.itechart.cityservice.graph.WeightProfiles;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalTime;
+
+/**
+ * Graphs of the cached graph at different times of day, see {@link GraphSnapshot#at(int)}. Distances don't change
+ * within a slot of the profiles, so all departures of the same slot share one graph. Every graph keeps its own copy
+ * of weights, so only a few of them are kept.
+ */
+@Component
+public class TimedGraphs {
+    // the key is the version of the graph multiplied by the number of minutes per day plus the slot
+    private final Cache<Long, GraphSnapshot> cache;
+
+    public TimedGraphs(@Value("${cityservice.profiles.cached-graphs:8}") long maximumSize,
+                       MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "timed-graphs");
+    }
+
+    // the graph itself if there is no departure or the graph has no profiles
+    public GraphSnapshot at(GraphSnapshot graph, LocalTime departure) {
+        if (departure == null || graph.profiles().isEmpty()) {
+            return graph;
+        }
+        int minute = departure.getHour() * 60 + departure.getMinute();
+        long key = graph.version() * WeightProfiles.MINUTES_PER_DAY + graph.profiles().slotOf(minute);
+        return cache.get(key, slot -> graph.at(minute));
+    }
+
+    // graphs of the previous versions are never returned anyway, but they shouldn't take space
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+}
@@ -0,0 +1,63 @@
+package com.itechart.cityservice.graph;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ComponentIndexTest {
+
+    @Test
+    void findComponents_OK() {
+        var graph = GraphSnapshot.builder()
+                .addDistance("A", "B", 5L)
+                .addDistance("C", "D", 1L)
+                .addDistance("D", "E", 2L)
+                .addDistance("C", "E", 4L)
+                .build(1L);
+        var components = graph.components();
+
+        assertTrue(components.isConnected(graph.idOf("A"), graph.idOf("B")));
+        assertFalse(components.isConnected(graph.idOf("A"), graph.idOf("E")));
+        // the representative is the city with the smallest id, i.e. the one which was added first
+        assertEquals(graph.idOf("C"), components.component(graph.idOf("E")));
+        assertEquals(2, components.reachableCities(graph.idOf("B")));
+        assertEquals(1L, components.reachableEdges(graph.idOf("B")));
+        assertEquals(0L, components.cycles(graph.idOf("B")));
+        assertEquals(3, components.reachableCities(graph.idOf("E")));
+        assertEquals(3L, components.reachableEdges(graph.idOf("E")));
+        assertEquals(1L, components.cycles(graph.idOf("E")));
+    }
+
+    @Test
+    void mergeComponentsOfAppliedDistances_OK() {
+        var graph = GraphSnapshot.builder()
+                .addDistance("A", "B", 5L)
+                .addDistance("C", "D", 1L)
+                .addDistance("D", "E", 2L)
+                .addDistance("C", "E", 4L)
+                .build(1L);
+
+        // a changed weight is not a new distance, and a new city joins the component of its neighbour
+        var changed = graph.apply(new GraphDelta().addDistance("B", "D", 3L).addDistance("C", "D", 2L)
+                .addDistance("E", "F", 1L));
+        var components = changed.components();
+        assertEquals(changed.idOf("A"), components.component(changed.idOf("F")));
+        assertEquals(6, components.reachableCities(changed.idOf("C")));
+        assertEquals(6L, components.reachableEdges(changed.idOf("C")));
+        assertEquals(1L, components.cycles(changed.idOf("C")));
+        // the previous snapshot keeps its components
+        assertFalse(graph.components().isConnected(graph.idOf("A"), graph.idOf("E")));
+
+        // the graph built from scratch gets the same components
+        var rebuilt = GraphSnapshot.builder()
+                .addDistance("A", "B", 5L)
+                .addDistance("C", "D", 2L)
+                .addDistance("D", "E", 2L)
+                .addDistance("C", "E", 4L)
+                .addDistance("B", "D", 3L)
+                .addDistance("E", "F", 1L)
+                .build(2L);
+        assertEquals(6, rebuilt.components().reachableCities(rebuilt.idOf("F")));
+        assertEquals(6L, rebuilt.components().reachableEdges(rebuilt.idOf("F")));
+    }
+}
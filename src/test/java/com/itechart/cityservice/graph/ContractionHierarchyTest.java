@@ -0,0 +1,97 @@
+package com.itechart.cityservice.graph;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContractionHierarchyTest {
+
+    @Test
+    void findShortestPaths_OK() {
+        var graph = TestGraphs.big();
+        assertSameShortestPaths(graph, ContractionHierarchy.build(graph));
+    }
+
+    @Test
+    void rebuildChangedGraphInPreviousOrder_OK(@TempDir Path directory) throws IOException {
+        var graph = TestGraphs.big();
+        var hierarchy = ContractionHierarchy.build(graph);
+
+        var changedGraph = graph.apply(new GraphDelta().addDistance("A", "W", 1L).addDistance("W", "New", 2L)
+                .setRevision(2L));
+        var order = Arrays.copyOf(hierarchy.order(), changedGraph.size());
+        order[order.length - 1] = changedGraph.idOf("New");
+        var changedHierarchy = ContractionHierarchy.rebuild(changedGraph, order);
+        assertSameShortestPaths(changedGraph, changedHierarchy);
+        assertEquals(List.of("A", "W", "New"),
+                changedHierarchy.search().shortestPath(changedGraph, changedGraph.idOf("A"), changedGraph.idOf("New")).getPath());
+
+        var file = directory.resolve("graph.ch");
+        ContractionHierarchyFile.write(changedHierarchy, file);
+        var stored = ContractionHierarchyFile.read(file);
+        assertEquals(changedGraph.revision(), stored.revision());
+        assertSameShortestPaths(changedGraph, stored);
+    }
+
+    @Test
+    void findShortestPathsOfRandomGraph_OK() {
+        // a random graph needs a lot of shortcuts, so it ends with a core of cities which are not contracted
+        var random = new Random(7L);
+        var graph = TestGraphs.random(random, 1000, 3000);
+        var hierarchy = ContractionHierarchy.build(graph);
+        var search = new ShortestPathSearch(graph);
+        for (int i = 0; i < 1000; i++) {
+            int from = random.nextInt(graph.size());
+            int to = random.nextInt(graph.size());
+            var expected = search.bidirectional(from, to);
+            var actual = hierarchy.search().shortestPath(graph, from, to);
+            assertEquals(expected == null ? null : expected.getDistance(), actual == null ? null : actual.getDistance());
+        }
+    }
+
+    @Test
+    void matchOnlyGraphWithSameIds_OK(@TempDir Path directory) throws IOException {
+        var graph = GraphSnapshot.builder()
+                .addDistance("A", "B", 1L).addDistance("B", "C", 1L).addDistance("C", "D", 1L).addDistance("A", "D", 10L)
+                .build(1L, 5L);
+        var file = directory.resolve("graph.ch");
+        ContractionHierarchyFile.write(ContractionHierarchy.build(graph), file);
+
+        // the same revision loaded with rows in another order gives other ids to the same cities
+        var reloaded = GraphSnapshot.builder()
+                .addDistance("C", "D", 1L).addDistance("A", "D", 10L).addDistance("B", "C", 1L).addDistance("A", "B", 1L)
+                .build(2L, 5L);
+        var stored = ContractionHierarchyFile.read(file);
+        assertTrue(stored.matches(graph));
+        assertFalse(stored.matches(reloaded));
+    }
+
+    // every path of the hierarchy is as short as the one of Dijkstra and consists of the original distances
+    private void assertSameShortestPaths(GraphSnapshot graph, ContractionHierarchy hierarchy) {
+        var search = new ShortestPathSearch(graph);
+        for (int from = 0; from < graph.size(); from++) {
+            for (int to = 0; to < graph.size(); to++) {
+                var expected = search.bidirectional(from, to);
+                var actual = hierarchy.search().shortestPath(graph, from, to);
+                assertEquals(expected.getDistance(), actual.getDistance());
+                assertEquals(graph.nameOf(from), actual.getPath().get(0));
+                assertEquals(graph.nameOf(to), actual.getPath().get(actual.getPath().size() - 1));
+
+                long distance = 0;
+                for (int i = 1; i < actual.getPath().size(); i++) {
+                    long weight = graph.weight(graph.idOf(actual.getPath().get(i - 1)), graph.idOf(actual.getPath().get(i)));
+                    assertTrue(weight >= 0);
+                    distance += weight;
+                }
+                assertEquals(actual.getDistance(), distance);
+            }
+        }
+    }
+}
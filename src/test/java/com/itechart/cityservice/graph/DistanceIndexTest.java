@@ -0,0 +1,38 @@
+package com.itechart.cityservice.graph;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DistanceIndexTest {
+
+    @Test
+    void findShortestPaths_OK() {
+        var graph = TestGraphs.big();
+
+        var index = DistanceIndex.build(graph, ForkJoinPool.commonPool());
+        var search = new ShortestPathSearch(graph);
+        for (int from = 0; from < graph.size(); from++) {
+            for (int to = 0; to < graph.size(); to++) {
+                var expected = search.bidirectional(from, to);
+                var actual = index.path(from, to);
+                assertEquals(expected.getDistance(), index.distance(from, to));
+                assertEquals(expected.getDistance(), actual.getDistance());
+                assertEquals(graph.nameOf(from), actual.getPath().get(0));
+                assertEquals(graph.nameOf(to), actual.getPath().get(actual.getPath().size() - 1));
+            }
+        }
+    }
+
+    @Test
+    void findNoPathBetweenComponents_OK() {
+        var graph = GraphSnapshot.builder().addDistance("A", "B", 5L).addDistance("C", "D", 1L).build(1L);
+
+        var index = DistanceIndex.build(graph, ForkJoinPool.commonPool());
+        assertEquals(DistanceIndex.UNREACHABLE, index.distance(graph.idOf("A"), graph.idOf("D")));
+        assertNull(index.path(graph.idOf("A"), graph.idOf("D")));
+        assertEquals(5L, index.distance(graph.idOf("B"), graph.idOf("A")));
+    }
+}
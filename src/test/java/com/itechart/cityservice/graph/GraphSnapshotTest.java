@@ -0,0 +1,85 @@
+package com.itechart.cityservice.graph;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GraphSnapshotTest {
+
+    @Test
+    void applyChangedWeights_OK() {
+        var graph = TestGraphs.small();
+        var changed = graph.apply(new GraphDelta().addDistance("C", "B", 3L).setRevision(2L));
+
+        assertEquals(graph.version() + 1, changed.version());
+        assertEquals(changed.version(), changed.weightsVersion());
+        assertEquals(2L, changed.revision());
+        assertEquals(3L, changed.weight(changed.idOf("B"), changed.idOf("C")));
+        assertEquals(3L, changed.weight(changed.idOf("C"), changed.idOf("B")));
+        assertEquals(graph.edgeCount(), changed.edgeCount());
+        // the previous snapshot stays untouched
+        assertEquals(10L, graph.weight(graph.idOf("B"), graph.idOf("C")));
+    }
+
+    @Test
+    void applyAddedCitiesAndDistances_OK() {
+        var graph = TestGraphs.small();
+        var changed = graph.apply(new GraphDelta().addDistance("A", "D", 3L).addDistance("D", "E", 2L)
+                .addDistance("A", "D", 4L).setRevision(2L));
+
+        // ids of the existing cities are preserved, and the last distance of a pair wins
+        for (int city = 0; city < graph.size(); city++) {
+            assertEquals(graph.nameOf(city), changed.nameOf(city));
+        }
+        assertEquals(5, changed.size());
+        assertEquals(5, changed.edgeCount());
+        assertEquals(4L, changed.weight(changed.idOf("D"), changed.idOf("A")));
+        assertEquals(2L, changed.weight(changed.idOf("E"), changed.idOf("D")));
+        assertEquals(5L, changed.weight(changed.idOf("A"), changed.idOf("B")));
+        assertEquals(-1L, graph.weight(graph.idOf("A"), graph.idOf("D")));
+        assertFalse(graph.contains("E"));
+    }
+
+    @Test
+    void applyCoordinatesAndProfiles_OK() {
+        var graph = TestGraphs.small();
+        var changed = graph.apply(new GraphDelta().addCoordinates("A", 53.90, 27.56).addCoordinates("F", 52.10, 23.69)
+                .addProfile("A", "B", WeightProfiles.pack(7 * 60, 8 * 60, 30L)));
+
+        // distances are the same, so everything built from the weights is still valid
+        assertEquals(graph.weightsVersion(), changed.weightsVersion());
+        assertTrue(changed.hasCoordinates(changed.idOf("A")));
+        assertEquals(53.90, changed.latitude(changed.idOf("A")));
+        assertFalse(changed.hasCoordinates(changed.idOf("B")));
+        assertFalse(changed.contains("F"));
+
+        assertEquals(30L, changed.at(7 * 60).weight(changed.idOf("B"), changed.idOf("A")));
+        assertEquals(5L, changed.at(8 * 60).weight(changed.idOf("A"), changed.idOf("B")));
+        assertTrue(changed.at(7 * 60).isTimed());
+        assertSame(graph, graph.at(7 * 60));
+    }
+
+    @Test
+    void applyEmptyDelta_OK() {
+        var graph = TestGraphs.small();
+
+        // the revision is taken anyway, so the snapshot moves to it
+        var moved = graph.apply(new GraphDelta().setRevision(3L));
+        assertEquals(3L, moved.revision());
+        assertEquals(graph.version() + 1, moved.version());
+        assertEquals(graph.weightsVersion(), moved.weightsVersion());
+        assertEquals(graph.edgeCount(), moved.edgeCount());
+        assertSame(moved, moved.apply(new GraphDelta().setRevision(2L)));
+    }
+
+    @Test
+    void applyClearedDelta_OK() {
+        var graph = TestGraphs.small();
+        var cleared = graph.apply(new GraphDelta().setCleared(true).setRevision(4L));
+
+        assertEquals(0, cleared.size());
+        assertEquals(0, cleared.edgeCount());
+        assertEquals(4L, cleared.revision());
+        assertEquals(graph.version() + 1, cleared.version());
+    }
+}
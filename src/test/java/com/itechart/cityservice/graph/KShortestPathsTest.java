@@ -0,0 +1,55 @@
+package com.itechart.cityservice.graph;
+
+import com.itechart.cityservice.dto.PathResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KShortestPathsTest {
+
+    @Test
+    void findPathsInOrderOfDistance_OK() {
+        var graph = TestGraphs.big();
+        var expected = new PathEnumeration(graph, graph.idOf("K"), 1000, 10_000L)
+                .findPaths(graph.idOf("A"), ForkJoinPool.commonPool()).stream()
+                .map(PathResponse::getDistance).sorted().collect(Collectors.toList());
+
+        var paths = new ArrayList<PathResponse>();
+        new KShortestPaths(graph, graph.idOf("A"), graph.idOf("K"), null).forEachRemaining(paths::add);
+
+        assertEquals(expected, paths.stream().map(PathResponse::getDistance).collect(Collectors.toList()));
+        assertEquals(List.of("A", "B", "E", "J", "K"), paths.get(0).getPath());
+        assertEquals(12, paths.get(0).getDistance());
+        // every path is loopless and is found only once
+        assertEquals(paths.size(), paths.stream().map(PathResponse::getPath).distinct().count());
+        assertTrue(paths.stream().allMatch(p -> new HashSet<>(p.getPath()).size() == p.getPath().size()));
+    }
+
+    @Test
+    void findPathsWithinMaxDistance_OK() {
+        var graph = TestGraphs.big();
+        var paths = new ArrayList<PathResponse>();
+        new KShortestPaths(graph, graph.idOf("A"), graph.idOf("K"), null).forEachRemaining(paths::add);
+
+        var bounded = new ArrayList<PathResponse>();
+        new KShortestPaths(graph, graph.idOf("A"), graph.idOf("K"), 40L).forEachRemaining(bounded::add);
+
+        var expected = paths.stream().filter(p -> p.getDistance() <= 40L).collect(Collectors.toList());
+        assertEquals(expected.stream().map(PathResponse::getDistance).collect(Collectors.toList()),
+                bounded.stream().map(PathResponse::getDistance).collect(Collectors.toList()));
+        assertEquals(new HashSet<>(expected), new HashSet<>(bounded));
+    }
+
+    @Test
+    void findNoPathsBetweenComponents_OK() {
+        var graph = GraphSnapshot.builder().addDistance("A", "B", 5L).addDistance("C", "D", 1L).build(1L);
+
+        assertFalse(new KShortestPaths(graph, graph.idOf("A"), graph.idOf("D"), null).hasNext());
+    }
+}
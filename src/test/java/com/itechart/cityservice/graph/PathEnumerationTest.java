@@ -0,0 +1,44 @@
+package com.itechart.cityservice.graph;
+
+import com.itechart.cityservice.dto.PathResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PathEnumerationTest {
+
+    @Test
+    void findPathsWithinBudget_OK() {
+        var graph = TestGraphs.big();
+
+        var enumeration = new PathEnumeration(graph, graph.idOf("K"), 10, 10_000L);
+        var paths = enumeration.findPaths(graph.idOf("A"), ForkJoinPool.commonPool());
+        assertTrue(enumeration.isTruncated());
+        assertEquals(10, paths.size());
+
+        var all = new PathEnumeration(graph, graph.idOf("K"), 1000, 10_000L);
+        assertEquals(217, all.findPaths(graph.idOf("A"), ForkJoinPool.commonPool()).size());
+        assertFalse(all.isTruncated());
+    }
+
+    @Test
+    void findPathsWithCutOffs_OK() {
+        var graph = TestGraphs.big();
+        var exhaustive = new PathEnumeration(graph, graph.idOf("K"), 1000, 10_000L);
+        var allPaths = exhaustive.findPaths(graph.idOf("A"), ForkJoinPool.commonPool());
+        var expected = allPaths.stream().map(PathResponse::getDistance).filter(distance -> distance <= 60L)
+                .sorted().limit(5).collect(Collectors.toList());
+
+        var bounded = new PathEnumeration(graph, graph.idOf("K"), 1000, 10_000L, 5, 60L);
+        var paths = bounded.findPaths(graph.idOf("A"), ForkJoinPool.commonPool());
+        paths.sort(Comparator.comparing(PathResponse::getDistance));
+
+        assertEquals(expected, paths.stream().map(PathResponse::getDistance).collect(Collectors.toList()));
+        // branches which can't beat the 5th path or end within the distance are not explored
+        assertTrue(bounded.expandedCities() < exhaustive.expandedCities() / 2);
+    }
+}
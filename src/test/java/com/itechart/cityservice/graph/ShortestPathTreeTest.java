@@ -0,0 +1,44 @@
+package com.itechart.cityservice.graph;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShortestPathTreeTest {
+
+    @Test
+    void findPathsToAllTargets_OK() {
+        var graph = TestGraphs.big();
+        var search = new ShortestPathSearch(graph);
+
+        // one tree answers all destinations of its start city
+        var targets = new int[graph.size()];
+        for (int city = 0; city < graph.size(); city++) {
+            targets[city] = city;
+        }
+        var tree = ShortestPathTree.search(graph, graph.idOf("A"), targets);
+        assertEquals(List.of("A", "B", "E", "J", "K"), tree.path(graph.idOf("K")).getPath());
+        for (int city = 0; city < graph.size(); city++) {
+            assertEquals(search.bidirectional(graph.idOf("A"), city).getDistance(), tree.distance(city));
+        }
+    }
+
+    @Test
+    void findPathsWithinMaxDistance_OK() {
+        var graph = TestGraphs.big();
+        var search = new ShortestPathSearch(graph);
+
+        // cities beyond the distance only get lower bounds which are beyond it too
+        var tree = ShortestPathTree.within(graph, graph.idOf("A"), 12L);
+        for (int city = 0; city < graph.size(); city++) {
+            long distance = search.bidirectional(graph.idOf("A"), city).getDistance();
+            if (distance <= 12L) {
+                assertEquals(distance, tree.distance(city));
+            } else {
+                assertTrue(tree.distance(city) > 12L);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.itechart.cityservice.graph;
+
+import java.util.Random;
+
+// graphs of the service tests, built right away without the database
+final class TestGraphs {
+    private TestGraphs() {
+    }
+
+    static GraphSnapshot small() {
+        return GraphSnapshot.builder()
+                .addDistance("A", "B", 5L)
+                .addDistance("B", "C", 10L)
+                .addDistance("C", "D", 1L)
+                .build(1L);
+    }
+
+    // 217 paths between A and K, the shortest one is A, B, E, J, K of 12
+    static GraphSnapshot big() {
+        return GraphSnapshot.builder()
+                .addDistance("A", "B", 1L)
+                .addDistance("A", "D", 15L)
+                .addDistance("A", "C", 7L)
+                .addDistance("B", "E", 4L)
+                .addDistance("C", "G", 8L)
+                .addDistance("C", "H", 10L)
+                .addDistance("D", "J", 8L)
+                .addDistance("E", "F", 5L)
+                .addDistance("E", "J", 4L)
+                .addDistance("F", "H", 2L)
+                .addDistance("H", "M", 1L)
+                .addDistance("I", "J", 5L)
+                .addDistance("I", "L", 9L)
+                .addDistance("I", "M", 1L)
+                .addDistance("J", "K", 3L)
+                .addDistance("L", "Q", 7L)
+                .addDistance("L", "N", 5L)
+                .addDistance("N", "P", 6L)
+                .addDistance("O", "P", 7L)
+                .addDistance("N", "O", 13L)
+                .addDistance("Q", "R", 10L)
+                .addDistance("R", "P", 8L)
+                .addDistance("O", "U", 4L)
+                .addDistance("U", "V", 11L)
+                .addDistance("V", "W", 16L)
+                .addDistance("T", "V", 6L)
+                .addDistance("O", "T", 3L)
+                .addDistance("U", "T", 5L)
+                .addDistance("M", "O", 2L)
+                .addDistance("M", "S", 6L)
+                .addDistance("S", "T", 8L)
+                .addDistance("S", "Z", 14L)
+                .addDistance("Z", "M", 9L)
+                .addDistance("Z", "Y", 9L)
+                .addDistance("Y", "M", 17L)
+                .addDistance("Y", "X", 10L)
+                .addDistance("H", "X", 11L)
+                .build(1L);
+    }
+
+    // random distances between the cities, some of them stay unreachable
+    static GraphSnapshot random(Random random, int cities, int distances) {
+        var builder = GraphSnapshot.builder();
+        for (int i = 0; i < distances; i++) {
+            builder.addDistance("C" + random.nextInt(cities), "C" + random.nextInt(cities), 1 + random.nextInt(100));
+        }
+        return builder.build(1L);
+    }
+}
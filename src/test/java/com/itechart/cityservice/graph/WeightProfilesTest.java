@@ -0,0 +1,73 @@
+package com.itechart.cityservice.graph;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WeightProfilesTest {
+
+    @Test
+    void packIntervals_OK() {
+        long interval = WeightProfiles.pack(22 * 60, 2 * 60, WeightProfiles.MAX_DISTANCE);
+
+        assertEquals(22 * 60, WeightProfiles.from(interval));
+        assertEquals(2 * 60, WeightProfiles.to(interval));
+        assertEquals(WeightProfiles.MAX_DISTANCE, WeightProfiles.distance(interval));
+        assertEquals(WeightProfiles.key(3, 7), WeightProfiles.key(7, 3));
+    }
+
+    @Test
+    void findDistancesAtMinute_OK() {
+        long[] keys = {WeightProfiles.key(1, 2), WeightProfiles.key(0, 2), WeightProfiles.key(2, 1)};
+        long[] intervals = {
+                WeightProfiles.pack(7 * 60, 10 * 60, 30L),
+                WeightProfiles.pack(22 * 60, 2 * 60, 1L),
+                // the later interval overrides the earlier one where they overlap
+                WeightProfiles.pack(8 * 60, 9 * 60, 12L)
+        };
+        var profiles = WeightProfiles.EMPTY.append(keys, intervals, intervals.length);
+
+        assertEquals(2, profiles.size());
+        assertEquals(-1L, profiles.distanceAt(1, 2, 12 * 60));
+        assertEquals(30L, profiles.distanceAt(2, 1, 7 * 60 + 30));
+        assertEquals(12L, profiles.distanceAt(1, 2, 8 * 60 + 30));
+        assertEquals(30L, profiles.distanceAt(1, 2, 9 * 60));
+        // the interval goes over midnight and ends before its last minute
+        assertEquals(1L, profiles.distanceAt(0, 2, 23 * 60));
+        assertEquals(1L, profiles.distanceAt(0, 2, 2 * 60 - 1));
+        assertEquals(-1L, profiles.distanceAt(0, 2, 2 * 60));
+        assertEquals(-1L, profiles.distanceAt(0, 1, 8 * 60));
+    }
+
+    @Test
+    void splitDayIntoSlots_OK() {
+        long[] keys = {WeightProfiles.key(0, 1), WeightProfiles.key(0, 1)};
+        long[] intervals = {WeightProfiles.pack(7 * 60, 10 * 60, 30L), WeightProfiles.pack(8 * 60, 9 * 60, 12L)};
+        var profiles = WeightProfiles.EMPTY.append(keys, intervals, intervals.length);
+
+        // no distance changes within a slot, and the night before 7:00 and after 10:00 is the same slot
+        assertEquals(profiles.slotOf(7 * 60), profiles.slotOf(8 * 60 - 1));
+        assertNotEquals(profiles.slotOf(8 * 60 - 1), profiles.slotOf(8 * 60));
+        assertEquals(profiles.slotOf(0), profiles.slotOf(10 * 60));
+        assertEquals(profiles.slotOf(6 * 60), profiles.slotOf(23 * 60));
+        assertNotEquals(profiles.slotOf(0), profiles.slotOf(7 * 60));
+    }
+
+    @Test
+    void dropCoveredIntervals_OK() {
+        long key = WeightProfiles.key(0, 1);
+        var profiles = WeightProfiles.EMPTY;
+        for (long distance = 1; distance <= 100; distance++) {
+            profiles = profiles.append(new long[]{key}, new long[]{WeightProfiles.pack(7 * 60, 8 * 60, distance)}, 1);
+        }
+        var covering = profiles.append(new long[]{key}, new long[]{WeightProfiles.pack(6 * 60, 9 * 60, 5L)}, 1);
+
+        assertEquals(1, profiles.intervals().get(key).length);
+        assertEquals(100L, profiles.distanceAt(0, 1, 7 * 60));
+        assertEquals(1, covering.intervals().get(key).length);
+        assertEquals(5L, covering.distanceAt(0, 1, 7 * 60));
+        // the appended profiles are a copy, the previous ones stay untouched
+        assertEquals(100L, profiles.distanceAt(0, 1, 7 * 60));
+        assertSame(profiles, profiles.append(new long[0], new long[0], 0));
+    }
+}
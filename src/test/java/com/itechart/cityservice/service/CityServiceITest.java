@@ -1,29 +1,88 @@
 package com.itechart.cityservice.service;
 
+import com.itechart.cityservice.dto.CityCoordinatesDTO;
+import com.itechart.cityservice.dto.CityPairDTO;
 import com.itechart.cityservice.dto.DistanceDTO;
+import com.itechart.cityservice.dto.DistanceMatrix;
+import com.itechart.cityservice.dto.DistanceProfileDTO;
+import com.itechart.cityservice.dto.IngestionStatus;
 import com.itechart.cityservice.dto.PathRequestDTO;
+import com.itechart.cityservice.dto.PathResponse;
+import com.itechart.cityservice.dto.ReachabilityDTO;
+import com.itechart.cityservice.dto.ShortestPathAlgorithm;
+import com.itechart.cityservice.exception.InvalidDistancesException;
+import com.itechart.cityservice.exception.OverloadedException;
 import com.itechart.cityservice.exception.PathNotExistsException;
+import com.itechart.cityservice.exception.RateLimitedException;
+import com.itechart.cityservice.exception.RequestTooLargeException;
+import com.itechart.cityservice.exception.UnknownBatchException;
 import com.itechart.cityservice.exception.UnknownCityException;
+import com.itechart.cityservice.graph.ContractionHierarchy;
+import com.itechart.cityservice.graph.ContractionHierarchyFile;
+import com.itechart.cityservice.graph.GraphDelta;
+import com.itechart.cityservice.graph.GraphSnapshot;
+import com.itechart.cityservice.graph.GraphSnapshotFile;
+import com.itechart.cityservice.graph.ShortestPathSearch;
+import com.itechart.cityservice.repo.CityRepo;
+import com.itechart.cityservice.repo.DistanceMigration;
+import com.itechart.cityservice.repo.DistanceProfileRepo;
 import com.itechart.cityservice.repo.DistanceRepo;
+import com.itechart.cityservice.repo.GraphChangeRepo;
+import com.itechart.cityservice.repo.GraphRevisionRepo;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
-@SpringBootTest
+// the graph is always loaded from the database, so that tests don't race with reconciliation of a stored graph
+@SpringBootTest(properties = "cityservice.snapshot.file=")
 public class CityServiceITest {
     @Autowired CityServiceImpl cityService;
     @Autowired DistanceRepo distanceRepo;
+    @Autowired CityRepo cityRepo;
+    @Autowired GraphRevisionRepo graphRevisionRepo;
+    @Autowired GraphChangeRepo graphChangeRepo;
+    @Autowired PlatformTransactionManager transactionManager;
+    @Autowired DistanceIndexUpdater distanceIndexUpdater;
+    @Autowired IngestionQueue ingestionQueue;
+    @Autowired ExecutionLanes lanes;
+    @Autowired CityMetrics metrics;
+    @Autowired DistanceMigration distanceMigration;
+    @Autowired JdbcTemplate jdbcTemplate;
+    @Autowired DataSource dataSource;
+    @Autowired DistanceProfileRepo distanceProfileRepo;
+    @Autowired PathCache pathCache;
+    @Autowired TimedGraphs timedGraphs;
+    @Autowired ContractionHierarchyUpdater contractionHierarchyUpdater;
+    @Autowired QueryCostEstimator costEstimator;
+    @Value("${cityservice.ingestion.queue-capacity}") int ingestionQueueCapacity;
+    @Value("${cityservice.lanes.database.threads}") int databaseThreads;
+    @Value("${cityservice.lanes.database.queue-capacity}") int databaseQueueCapacity;
+    @Value("${cityservice.admission.downgrade-k}") int downgradeK;
 
     @BeforeEach
     void beforeEach() {
-        distanceRepo.deleteAll();
+        cityService.deleteAllDistances();
     }
 
     @Test
@@ -35,13 +94,240 @@ public class CityServiceITest {
 
         assertEquals(3, distancesFromDB.size());
 
-        var cachedCities = cityService.getCachedCities();
+        var graph = cityService.getGraph();
 
-        assertEquals(4, cachedCities.size());
-        assertTrue(cachedCities.containsKey("A"));
-        assertTrue(cachedCities.containsKey("B"));
-        assertTrue(cachedCities.containsKey("C"));
-        assertTrue(cachedCities.containsKey("D"));
+        assertEquals(4, graph.size());
+        assertEquals(3, graph.edgeCount());
+        assertTrue(graph.contains("A"));
+        assertTrue(graph.contains("B"));
+        assertTrue(graph.contains("C"));
+        assertTrue(graph.contains("D"));
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void addEmptyDistances_OK() {
+        cityService.addDistances(getSmallInputData());
+        var previousGraph = cityService.getGraph();
+
+        // an empty write doesn't take a revision and doesn't hold up the next ones
+        long revision = graphRevisionRepo.currentRevision();
+        cityService.addDistances(List.of());
+        cityService.updateCoordinates(List.of());
+        assertEquals(revision, graphRevisionRepo.currentRevision());
+        cityService.addDistances(List.of(new DistanceDTO("D", "E", 4L)));
+
+        var graph = cityService.getGraph();
+        assertTrue(graph.version() > previousGraph.version());
+        assertEquals(graphRevisionRepo.currentRevision(), graph.revision());
+        assertEquals(4L, graph.weight(graph.idOf("D"), graph.idOf("E")));
+    }
+
+    @Test
+    void addDistancesIncrementally_OK() {
+        cityService.addDistances(getSmallInputData());
+        var previousGraph = cityService.getGraph();
+
+        cityService.addDistances(List.of(
+                new DistanceDTO("C", "B", 2L),
+                new DistanceDTO("D", "E", 4L)
+        ));
+
+        // reversed pair of cities updates the existing distance instead of adding a new one
+        assertEquals(4, distanceRepo.count());
+
+        var graph = cityService.getGraph();
+        assertTrue(graph.version() > previousGraph.version());
+        assertEquals(5, graph.size());
+        assertEquals(4, graph.edgeCount());
+        assertEquals(2L, graph.weight(graph.idOf("B"), graph.idOf("C")));
+        assertEquals(previousGraph.idOf("D"), graph.idOf("D"));
+
+        // readers which still hold the previous snapshot don't see the changes
+        assertEquals(10L, previousGraph.weight(previousGraph.idOf("B"), previousGraph.idOf("C")));
+        assertFalse(previousGraph.contains("E"));
+
+        var searchResult = cityService.searchPaths(new PathRequestDTO("A", "E"));
+        assertEquals(graph.version(), searchResult.getGraphVersion());
+
+        var pathResponse = searchResult.getPaths();
+        assertEquals(1, pathResponse.size());
+        assertEquals(12, pathResponse.get(0).getDistance());
+        assertEquals(List.of("A", "B", "C", "D", "E"), pathResponse.get(0).getPath());
+    }
+
+    @Test
+    void applyChangesOfAnotherInstance_OK() throws InterruptedException {
+        cityService.addDistances(getSmallInputData());
+
+        // the listener reads the change from the outbox when it's notified
+        long revision = commitAsAnotherInstance(new DistanceDTO("D", "Remote", 7L), true);
+        awaitRevision(revision);
+        var graph = cityService.getGraph();
+        assertEquals(7L, graph.weight(graph.idOf("D"), graph.idOf("Remote")));
+
+        // the next revision isn't in the outbox, so the gap is found and the graph is reloaded
+        commitAsAnotherInstance(new DistanceDTO("Remote", "Gap", 3L), false);
+        revision = commitAsAnotherInstance(new DistanceDTO("Gap", "Last", 2L), true);
+        awaitRevision(revision);
+        graph = cityService.getGraph();
+        assertEquals(3L, graph.weight(graph.idOf("Remote"), graph.idOf("Gap")));
+        assertEquals(2L, graph.weight(graph.idOf("Gap"), graph.idOf("Last")));
+
+        // local changes are still applied right after the commit
+        cityService.addDistances(List.of(new DistanceDTO("Last", "Local", 1L)));
+        assertTrue(cityService.getGraph().contains("Local"));
+        assertEquals(revision + 1, cityService.getGraph().revision());
+    }
+
+    // writes the distance like another instance of the service does, the cached graph isn't touched
+    private long commitAsAnotherInstance(DistanceDTO distance, boolean toOutbox) {
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            var ids = cityRepo.findOrCreateIds(List.of(distance.getCityA(), distance.getCityB()));
+            long first = ids.get(distance.getCityA());
+            long second = ids.get(distance.getCityB());
+            distanceRepo.upsertDistances(new long[]{Math.min(first, second)}, new long[]{Math.max(first, second)},
+                    new long[]{distance.getDistance()}, 1);
+            long revision = graphRevisionRepo.incrementRevision();
+            if (toOutbox) {
+                graphChangeRepo.append(new GraphDelta()
+                        .addDistance(distance.getCityA(), distance.getCityB(), distance.getDistance())
+                        .setRevision(revision));
+            }
+            return revision;
+        });
+    }
+
+    private void awaitRevision(long revision) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cityService.getGraph().revision() < revision && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(revision, cityService.getGraph().revision());
+    }
+
+    @Test
+    void addDistancesAsync_OK() throws InterruptedException {
+        var batches = List.of(
+                ingestionQueue.submit(List.of(new DistanceDTO("A", "B", 5L))),
+                ingestionQueue.submit(List.of(new DistanceDTO("B", "C", 10L), new DistanceDTO("C", "D", 1L))),
+                ingestionQueue.submit(List.of(new DistanceDTO("D", "E", 4L)))
+        );
+
+        for (var batch : batches) {
+            for (int attempt = 0; attempt < 100 && ingestionQueue.getStatus(batch.getId()).getStatus() != IngestionStatus.DONE; attempt++) {
+                Thread.sleep(20);
+            }
+            assertEquals(IngestionStatus.DONE, ingestionQueue.getStatus(batch.getId()).getStatus());
+        }
+
+        assertEquals(4, distanceRepo.count());
+        assertEquals(20, cityService.findAllPaths(new PathRequestDTO("A", "E")).get(0).getDistance());
+        assertThrows(UnknownBatchException.class, () -> ingestionQueue.getStatus("unknown"));
+
+        // batches which can never be accepted are rejected instead of being retried
+        assertThrows(InvalidDistancesException.class, () -> ingestionQueue.submit(List.of()));
+        assertThrows(RequestTooLargeException.class, () -> ingestionQueue.submit(
+                Collections.nCopies(ingestionQueueCapacity + 1, new DistanceDTO("A", "B", 5L))));
+    }
+
+    @Test
+    void rejectRequestsOfSaturatedLane_OK() {
+        var release = new CountDownLatch(1);
+        var accepted = new ArrayList<CompletableFuture<Object>>();
+        assertThrows(OverloadedException.class, () -> {
+            while (accepted.size() < 1000) {
+                accepted.add(lanes.database(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return null;
+                }));
+            }
+        });
+        release.countDown();
+
+        // all threads of the lane are busy and its queue is full
+        assertEquals(databaseThreads + databaseQueueCapacity, accepted.size());
+        accepted.forEach(CompletableFuture::join);
+        assertEquals("ok", lanes.query(() -> "ok").join());
+    }
+
+    @Test
+    void storeGraphSnapshot_OK(@TempDir Path directory) throws IOException {
+        cityService.addDistances(getBigInputData());
+        cityService.updateCoordinates(List.of(new CityCoordinatesDTO("A", 53.9, 27.56)));
+        var graph = cityService.getGraph();
+        assertTrue(graph.revision() > 0);
+
+        var file = directory.resolve("graph.snapshot");
+        GraphSnapshotFile.write(graph, file);
+        var stored = GraphSnapshotFile.read(file, 1L);
+
+        assertEquals(graph.revision(), stored.revision());
+        // the number of distances is compared with the database on start too
+        assertEquals(distanceRepo.count(), stored.edgeCount());
+        assertEquals(graph.size(), stored.size());
+        assertEquals(graph.edgeCount(), stored.edgeCount());
+        assertEquals(53.9, stored.latitude(stored.idOf("A")));
+        assertFalse(stored.hasCoordinates(stored.idOf("B")));
+        for (int city = 0; city < graph.size(); city++) {
+            var storedCity = stored.idOf(graph.nameOf(city));
+            for (int edge = graph.firstEdge(city); edge < graph.lastEdge(city); edge++) {
+                var target = stored.idOf(graph.nameOf(graph.target(edge)));
+                assertEquals(graph.weight(edge), stored.weight(storedCity, target));
+            }
+        }
+
+        // the reloaded graph gets the same revision, so a stored graph can be compared with the database
+        cityService.updateCache();
+        assertEquals(graph.revision(), cityService.getGraph().revision());
+    }
+
+    @Test
+    void restartAfterReconcileOfStoredGraph_OK(@TempDir Path directory) throws Exception {
+        cityService.addDistances(getSmallInputData());
+        long revision = cityService.getGraph().revision();
+
+        // a broken graph of the same revision is in the file, so it's reloaded and written again
+        var file = directory.resolve("graph.snapshot");
+        var builder = GraphSnapshot.builder();
+        builder.addDistance("A", "B", 5L);
+        GraphSnapshotFile.write(builder.build(1L, revision), file);
+
+        var store = new GraphSnapshotStore(file.toString());
+        var service = startService(store);
+        assertEquals(3, service.getGraph().edgeCount());
+        service.preDestroy();
+        store.shutdown();
+        assertEquals(3, GraphSnapshotFile.read(file, 1L).edgeCount());
+
+        // the next start keeps the stored graph
+        var restartedStore = new GraphSnapshotStore(file.toString());
+        var restarted = startService(restartedStore);
+        assertEquals(GraphSnapshot.EMPTY.version() + 1, restarted.getGraph().version());
+        assertEquals(revision, restarted.getGraph().revision());
+        assertEquals(3, restarted.getGraph().edgeCount());
+        restarted.preDestroy();
+        restartedStore.shutdown();
+    }
+
+    // Another instance of the service with its own stored graph. It returns when the stored graph is reconciled
+    // with the database, its change listener is off, so it doesn't consume notifications of this instance
+    private CityServiceImpl startService(GraphSnapshotStore store) throws InterruptedException {
+        var service = new CityServiceImpl(distanceRepo, distanceProfileRepo, cityRepo, graphRevisionRepo,
+                graphChangeRepo, new GraphChangeListener(dataSource, false, 5000), pathCache, timedGraphs, store,
+                distanceIndexUpdater, contractionHierarchyUpdater, costEstimator, metrics, transactionManager,
+                1000, 1.0, 100000, 10000L, 1, 4000000L, 100000, 10000L);
+        service.postConstruct();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("graph-reconciler")) {
+                thread.join();
+            }
+        }
+        return service;
     }
 
     @Test
@@ -78,6 +364,295 @@ public class CityServiceITest {
                 pathResponse.get(216).getPath());
     }
 
+    @Test
+    void findPathsWithinBudgetForBigData_OK() {
+        cityService.addDistances(getBigInputData());
+
+        var result = cityService.searchPaths(new PathRequestDTO("A", "K"));
+        assertFalse(result.isTruncated());
+        assertEquals(217, result.getPaths().size());
+    }
+
+    @Test
+    void findTopKPathsForBigData_OK() {
+        var inputData = getBigInputData();
+        cityService.addDistances(inputData);
+
+        var allPaths = cityService.findAllPaths(new PathRequestDTO("A", "K"));
+        var topPaths = cityService.findAllPaths(new PathRequestDTO("A", "K", 10, null));
+
+        assertEquals(10, topPaths.size());
+        assertEquals(List.of("A", "B", "E", "J", "K"), topPaths.get(0).getPath());
+        for (int i = 0; i < topPaths.size(); i++) {
+            assertEquals(allPaths.get(i).getDistance(), topPaths.get(i).getDistance());
+        }
+    }
+
+    @Test
+    void findPathsWithinMaxDistanceForBigData_OK() {
+        var inputData = getBigInputData();
+        cityService.addDistances(inputData);
+
+        var allPaths = cityService.findAllPaths(new PathRequestDTO("A", "K"));
+        var boundedPaths = cityService.findAllPaths(new PathRequestDTO("A", "K", null, 40L));
+
+        assertEquals(allPaths.stream().filter(p -> p.getDistance() <= 40L).count(), boundedPaths.size());
+        assertTrue(boundedPaths.stream().allMatch(p -> p.getDistance() <= 40L));
+    }
+
+    @Test
+    void findPathsWithCutOffsForBigData_OK() {
+        cityService.addDistances(getBigInputData());
+        var allPaths = cityService.findAllPaths(new PathRequestDTO("A", "K"));
+        var expected = allPaths.stream().filter(p -> p.getDistance() <= 60L).limit(5)
+                .map(PathResponse::getDistance).collect(Collectors.toList());
+
+        var result = cityService.findAllPaths(new PathRequestDTO("A", "K", 5, 60L));
+        assertEquals(expected, result.stream().map(PathResponse::getDistance).collect(Collectors.toList()));
+    }
+
+    @Test
+    void streamPathsForBigData_OK() {
+        var inputData = getBigInputData();
+        cityService.addDistances(inputData);
+
+        var allPaths = cityService.findAllPaths(new PathRequestDTO("A", "K"));
+        var pathStream = cityService.streamPaths(new PathRequestDTO("A", "K"));
+
+        assertEquals(cityService.getGraph().version(), pathStream.getGraphVersion());
+        int count = 0;
+        while (pathStream.hasNext()) {
+            assertEquals(allPaths.get(count++).getDistance(), pathStream.next().getDistance());
+        }
+        assertEquals(allPaths.size(), count);
+    }
+
+    @Test
+    void findCachedPaths_OK() {
+        cityService.addDistances(getSmallInputData());
+
+        var paths = cityService.findAllPaths(new PathRequestDTO("A", "D"));
+        var cachedPaths = cityService.findAllPaths(new PathRequestDTO("A", "D"));
+        assertEquals(paths, cachedPaths);
+        assertSame(cachedPaths, cityService.findAllPaths(new PathRequestDTO("A", "D")));
+
+        // the reversed request is served from the same entry
+        var reversedPaths = cityService.findAllPaths(new PathRequestDTO("D", "A"));
+        assertEquals(List.of("D", "C", "B", "A"), reversedPaths.get(0).getPath());
+        assertEquals(16, reversedPaths.get(0).getDistance());
+
+        // changed distances are visible right after the change
+        cityService.addDistances(List.of(new DistanceDTO("A", "D", 3L)));
+        var changedPaths = cityService.findAllPaths(new PathRequestDTO("D", "A"));
+        assertEquals(2, changedPaths.size());
+        assertEquals(List.of("D", "A"), changedPaths.get(0).getPath());
+    }
+
+    @Test
+    void findShortestPathForBigData_OK() {
+        cityService.addDistances(getBigInputData());
+
+        var allPaths = cityService.findAllPaths(new PathRequestDTO("A", "K"));
+        var result = cityService.findShortestPath(new PathRequestDTO("A", "K"), ShortestPathAlgorithm.DIJKSTRA);
+
+        assertEquals(cityService.getGraph().version(), result.getGraphVersion());
+        assertEquals(List.of("A", "B", "E", "J", "K"), result.getPaths().get(0).getPath());
+        assertEquals(12, result.getPaths().get(0).getDistance());
+
+        // every pair of cities gets the same distance as the shortest of all paths
+        var graph = cityService.getGraph();
+        for (int i = 0; i < graph.size(); i++) {
+            var start = graph.nameOf(i);
+            var expected = cityService.findAllPaths(new PathRequestDTO(start, "W", 1, null)).get(0).getDistance();
+            var actual = cityService.findShortestPath(new PathRequestDTO(start, "W"), ShortestPathAlgorithm.DIJKSTRA);
+            assertEquals(expected, actual.getPaths().get(0).getDistance());
+        }
+        assertEquals(allPaths.get(0).getDistance(), result.getPaths().get(0).getDistance());
+    }
+
+    @Test
+    void findShortestPathWithDistanceIndex_OK() throws InterruptedException {
+        cityService.addDistances(getBigInputData());
+        var graph = cityService.getGraph();
+
+        // the index of the cached graph is built in the background
+        for (int attempt = 0; attempt < 100 && distanceIndexUpdater.get(graph) == null; attempt++) {
+            Thread.sleep(20);
+        }
+        assertNotNull(distanceIndexUpdater.get(graph));
+        var result = cityService.findShortestPath(new PathRequestDTO("A", "K"), ShortestPathAlgorithm.DIJKSTRA);
+        assertEquals(List.of("A", "B", "E", "J", "K"), result.getPaths().get(0).getPath());
+    }
+
+    @Test
+    void loadContractionHierarchyOfReloadedGraph_OK(@TempDir Path directory) throws InterruptedException, IOException {
+        var graph = GraphSnapshot.builder()
+                .addDistance("A", "B", 1L).addDistance("B", "C", 1L).addDistance("C", "D", 1L).addDistance("A", "D", 10L)
+                .build(1L, 5L);
+        var file = directory.resolve("graph.ch");
+        ContractionHierarchyFile.write(ContractionHierarchy.build(graph), file);
+
+        // the same revision loaded with rows in another order gives other ids to the same cities
+        var reloaded = GraphSnapshot.builder()
+                .addDistance("C", "D", 1L).addDistance("A", "D", 10L).addDistance("B", "C", 1L).addDistance("A", "B", 1L)
+                .build(2L, 5L);
+        var updater = new ContractionHierarchyUpdater(true, file.toString());
+        try {
+            updater.rebuild(() -> reloaded);
+            for (int attempt = 0; attempt < 100 && updater.get(reloaded) == null; attempt++) {
+                Thread.sleep(20);
+            }
+            var path = updater.get(reloaded).search().shortestPath(reloaded, reloaded.idOf("A"), reloaded.idOf("D"));
+            assertEquals(List.of("A", "B", "C", "D"), path.getPath());
+            assertEquals(3L, path.getDistance());
+        } finally {
+            updater.shutdown();
+        }
+    }
+
+    @Test
+    void findShortestPathsInBatch_OK() {
+        cityService.addDistances(getBigInputData());
+        var graph = cityService.getGraph();
+        var search = new ShortestPathSearch(graph);
+
+        var pairs = new ArrayList<CityPairDTO>();
+        for (int from = 0; from < graph.size(); from++) {
+            pairs.add(new CityPairDTO(graph.nameOf(from), "K"));
+            pairs.add(new CityPairDTO(graph.nameOf(from), "W"));
+        }
+        pairs.add(new CityPairDTO("A", "Unknown"));
+
+        var result = cityService.findShortestPaths(pairs);
+        assertEquals(graph.version(), result.getGraphVersion());
+        assertEquals(pairs.size(), result.getResults().size());
+        for (int i = 0; i < pairs.size() - 1; i++) {
+            var pair = pairs.get(i);
+            var expected = search.bidirectional(graph.idOf(pair.getStartCity()), graph.idOf(pair.getDestinationCity()));
+            var actual = result.getResults().get(i);
+            assertEquals(pair.getStartCity(), actual.getStartCity());
+            assertEquals(expected.getDistance(), actual.getPath().getDistance());
+            assertEquals(pair.getDestinationCity(), actual.getPath().getPath().get(actual.getPath().getPath().size() - 1));
+        }
+        var unknown = result.getResults().get(pairs.size() - 1);
+        assertNull(unknown.getPath());
+        assertEquals("Unknown is unknown in the system", unknown.getErrorMessage());
+    }
+
+    @Test
+    void findDistanceMatrix_OK() {
+        cityService.addDistances(getBigInputData());
+        cityService.addDistances(List.of(new DistanceDTO("X1", "X2", 3L)));
+        var graph = cityService.getGraph();
+        var search = new ShortestPathSearch(graph);
+
+        var origins = List.of("A", "K", "A", "X1");
+        var destinations = List.of("K", "W", "A", "X2");
+        var matrix = cityService.findDistanceMatrix(origins, destinations);
+
+        assertEquals(graph.version(), matrix.getGraphVersion());
+        for (int i = 0; i < origins.size(); i++) {
+            for (int j = 0; j < destinations.size(); j++) {
+                var expected = search.bidirectional(graph.idOf(origins.get(i)), graph.idOf(destinations.get(j)));
+                assertEquals(expected == null ? DistanceMatrix.UNREACHABLE : expected.getDistance(),
+                        matrix.distance(i, j));
+            }
+        }
+        assertEquals(12, matrix.distance(0, 0));
+        assertEquals(3, matrix.distance(3, 3));
+        assertThrows(UnknownCityException.class, () -> cityService.findDistanceMatrix(List.of("A"), List.of("Unknown")));
+    }
+
+    @Test
+    void admitExpensivePathSearches_OK() throws InterruptedException {
+        cityService.addDistances(getBigInputData());
+        var result = cityService.searchPaths(new PathRequestDTO("A", "K"));
+        assertFalse(result.isDowngraded());
+        assertEquals(217, result.getPaths().size());
+
+        // every city of a clique is connected with every other one, so it has too many paths to search them all
+        var clique = new ArrayList<DistanceDTO>();
+        for (int i = 0; i < 16; i++) {
+            for (int j = i + 1; j < 16; j++) {
+                clique.add(new DistanceDTO("Hub" + i, "Hub" + j, 1L + i + j));
+            }
+        }
+        cityService.addDistances(clique);
+        var hubRequest = new PathRequestDTO("Hub0", "Hub15");
+        var downgraded = cityService.searchPaths(hubRequest);
+        assertTrue(downgraded.isDowngraded());
+        assertEquals(cityService.findAllPaths(new PathRequestDTO("Hub0", "Hub15", downgradeK, null)),
+                downgraded.getPaths());
+        // the downgraded search takes a few searches over 16 cities and 120 distances for each path
+        assertEquals(downgradeK * (16L + 120), cityService.estimateCost(hubRequest));
+
+        var graph = cityService.getGraph();
+        var rejecting = new QueryCostEstimator(1000L, 0, metrics);
+        assertThrows(RequestTooLargeException.class,
+                () -> rejecting.admit(graph, hubRequest, graph.idOf("Hub0"), graph.idOf("Hub15")));
+
+        // an expensive request puts the client into debt, other clients are not affected
+        var rateLimiter = new ClientRateLimiter(10.0, 100.0, 10L, metrics);
+        rateLimiter.acquire("first", 150L);
+        var limited = assertThrows(RateLimitedException.class, () -> rateLimiter.acquire("first", 1L));
+        assertTrue(limited.getRetryAfterSeconds() >= 5);
+        rateLimiter.acquire("second", 1L);
+        // the cost of a request which wasn't handled is given back
+        rateLimiter.acquire("third", 150L);
+        assertThrows(RateLimitedException.class, () -> rateLimiter.acquire("third", 1L));
+        rateLimiter.refund("third", 150L);
+        rateLimiter.acquire("third", 1L);
+
+        // the debt is kept while the client is idle until it's paid off, even if it's bigger than the burst
+        var indebted = new ClientRateLimiter(100.0, 10.0, 10L, metrics);
+        indebted.acquire("first", 300L);
+        Thread.sleep(1200);
+        assertThrows(RateLimitedException.class, () -> indebted.acquire("first", 1L));
+    }
+
+    @Test
+    void findShortestPathWithAStar_OK() {
+        cityService.addDistances(List.of(
+                new DistanceDTO("Minsk", "Brest", 350L),
+                new DistanceDTO("Minsk", "Grodno", 280L),
+                new DistanceDTO("Grodno", "Brest", 240L),
+                new DistanceDTO("Minsk", "Gomel", 310L)
+        ));
+        cityService.updateCoordinates(List.of(
+                new CityCoordinatesDTO("Minsk", 53.90, 27.56),
+                new CityCoordinatesDTO("Brest", 52.10, 23.69),
+                new CityCoordinatesDTO("Grodno", 53.68, 23.83),
+                new CityCoordinatesDTO("Gomel", 52.44, 30.99)
+        ));
+
+        var graph = cityService.getGraph();
+        assertTrue(graph.hasCoordinates(graph.idOf("Brest")));
+
+        var result = cityService.findShortestPath(new PathRequestDTO("Gomel", "Grodno"), ShortestPathAlgorithm.ASTAR);
+        assertEquals(List.of("Gomel", "Minsk", "Grodno"), result.getPaths().get(0).getPath());
+        assertEquals(590, result.getPaths().get(0).getDistance());
+
+        // coordinates are loaded together with distances
+        cityService.updateCache();
+        assertTrue(cityService.getGraph().hasCoordinates(cityService.getGraph().idOf("Gomel")));
+
+        assertThrows(UnknownCityException.class, () ->
+                cityService.updateCoordinates(List.of(new CityCoordinatesDTO("Vitebsk", 55.19, 30.20))));
+    }
+
+    @Test
+    void findShortestPath_NoPathException() {
+        cityService.addDistances(List.of(
+                new DistanceDTO("A", "B", 5L),
+                new DistanceDTO("C", "D", 1L)
+        ));
+
+        for (var algorithm : ShortestPathAlgorithm.values()) {
+            assertThrows(PathNotExistsException.class, () ->
+                    cityService.findShortestPath(new PathRequestDTO("A", "D"), algorithm));
+        }
+    }
+
     @Test
     void findPathForData_NoPathException() {
         var invalidInputData = List.of(
@@ -94,6 +669,139 @@ public class CityServiceITest {
         assertEquals("Unfortunately, there is no path between A and D", exception.getMessage());
     }
 
+    @Test
+    void findReachableCities_OK() {
+        cityService.addDistances(List.of(
+                new DistanceDTO("A", "B", 5L),
+                new DistanceDTO("C", "D", 1L),
+                new DistanceDTO("D", "E", 2L),
+                new DistanceDTO("C", "E", 4L)
+        ));
+
+        assertEquals(new ReachabilityDTO("B", "A", 2, 1L), cityService.findReachable("B").getReachability());
+        assertEquals(new ReachabilityDTO("E", "C", 3, 3L), cityService.findReachable("E").getReachability());
+        assertThrows(PathNotExistsException.class, () ->
+                cityService.streamPaths(new PathRequestDTO("A", "E")));
+
+        // the added distance merges both components, the representative is the city which was added first
+        cityService.addDistances(List.of(new DistanceDTO("B", "D", 3L)));
+        var reachability = cityService.findReachable("E");
+        assertEquals(new ReachabilityDTO("E", "A", 5, 5L), reachability.getReachability());
+        assertEquals(cityService.getGraph().version(), reachability.getGraphVersion());
+        assertEquals(List.of("A", "B", "D", "E"), cityService.findAllPaths(new PathRequestDTO("A", "E", 1, null))
+                .get(0).getPath());
+
+        // the reloaded graph gets the same components
+        cityService.updateCache();
+        assertEquals(5, cityService.findReachable("C").getReachability().getCities());
+        assertEquals(5L, cityService.findReachable("C").getReachability().getDistances());
+
+        assertThrows(UnknownCityException.class, () -> cityService.findReachable("F"));
+    }
+
+    @Test
+    void findPathsByDepartureTime_OK(@TempDir Path directory) throws IOException, InterruptedException {
+        cityService.addDistances(getSmallInputData());
+        cityService.addDistances(List.of(new DistanceDTO("A", "C", 20L)));
+        var graph = cityService.getGraph();
+        for (int attempt = 0; attempt < 100 && distanceIndexUpdater.get(graph) == null; attempt++) {
+            Thread.sleep(20);
+        }
+        assertNotNull(distanceIndexUpdater.get(graph));
+
+        cityService.addProfiles(List.of(
+                new DistanceProfileDTO("C", "B", LocalTime.of(7, 0), LocalTime.of(10, 0), 30L),
+                new DistanceProfileDTO("A", "C", LocalTime.of(22, 0), LocalTime.of(2, 0), 1L),
+                // the later interval overrides the earlier one where they overlap
+                new DistanceProfileDTO("B", "C", LocalTime.of(8, 0), LocalTime.of(9, 0), 12L)
+        ));
+        var profiled = cityService.getGraph();
+        assertEquals(2, profiled.profiles().size());
+        assertTrue(profiled.version() > graph.version());
+        // profiles don't change the distances themselves, so the index is still valid
+        assertEquals(graph.weightsVersion(), profiled.weightsVersion());
+        assertNotNull(distanceIndexUpdater.get(profiled));
+
+        assertDeparture(List.of("A", "B", "C", "D"), 16L, null);
+        assertDeparture(List.of("A", "B", "C", "D"), 16L, LocalTime.of(12, 0));
+        assertDeparture(List.of("A", "C", "D"), 21L, LocalTime.of(7, 30));
+        assertDeparture(List.of("A", "B", "C", "D"), 18L, LocalTime.of(8, 30));
+        assertDeparture(List.of("A", "C", "D"), 2L, LocalTime.of(1, 59));
+        assertEquals(2, cityService.findAllPaths(new PathRequestDTO("A", "D", null, null, LocalTime.of(9, 15)))
+                .size());
+
+        // a profile needs an existing distance, otherwise none of profiles of the request are appended
+        assertThrows(InvalidDistancesException.class, () -> cityService.addProfiles(List.of(
+                new DistanceProfileDTO("A", "B", LocalTime.of(7, 0), LocalTime.of(8, 0), 3L),
+                new DistanceProfileDTO("A", "D", LocalTime.of(7, 0), LocalTime.of(8, 0), 3L)
+        )));
+        assertEquals(profiled.version(), cityService.getGraph().version());
+        assertFalse(cityService.getGraph().contains("F"));
+
+        var file = directory.resolve("graph.snapshot");
+        GraphSnapshotFile.write(profiled, file);
+        var stored = GraphSnapshotFile.read(file, 1L);
+        assertEquals(12L, stored.profiles().distanceAt(stored.idOf("B"), stored.idOf("C"), 8 * 60));
+        assertEquals(-1L, stored.profiles().distanceAt(stored.idOf("A"), stored.idOf("B"), 8 * 60));
+
+        // the reloaded graph replays profiles in the order they were appended
+        cityService.updateCache();
+        assertEquals(2, cityService.getGraph().profiles().size());
+        assertDeparture(List.of("A", "B", "C", "D"), 18L, LocalTime.of(8, 30));
+        assertDeparture(List.of("A", "C", "D"), 21L, LocalTime.of(9, 30));
+    }
+
+    @Test
+    void migrateDistancesWrittenBeforeNormalization_OK() {
+        cityService.addDistances(getSmallInputData());
+        cityService.addProfiles(List.of(
+                new DistanceProfileDTO("A", "B", LocalTime.of(7, 0), LocalTime.of(8, 0), 3L)));
+        long a = cityRepo.findByName("A").orElseThrow().getId();
+        long b = cityRepo.findByName("B").orElseThrow().getId();
+        long c = cityRepo.findByName("C").orElseThrow().getId();
+        long d = cityRepo.findByName("D").orElseThrow().getId();
+
+        // rows as they could be written before: reversed pairs and duplicates, the latest row of a pair wins
+        jdbcTemplate.execute("ALTER TABLE distance DROP CONSTRAINT uk_distance_cities");
+        String insert = "INSERT INTO distance (id, first_city, second_city, distance) " +
+                "VALUES (nextval('hibernate_sequence'), ?, ?, ?)";
+        jdbcTemplate.update(insert, Math.max(a, b), Math.min(a, b), 7L);
+        jdbcTemplate.update(insert, Math.min(b, c), Math.max(b, c), 8L);
+        jdbcTemplate.update("UPDATE distance SET first_city = ?, second_city = ? WHERE first_city = ? " +
+                "AND second_city = ?", Math.max(c, d), Math.min(c, d), Math.min(c, d), Math.max(c, d));
+        assertEquals(5, distanceRepo.count());
+
+        distanceMigration.migrate();
+        jdbcTemplate.execute("ALTER TABLE distance ADD CONSTRAINT uk_distance_cities " +
+                "UNIQUE (first_city, second_city)");
+
+        assertEquals(3, distanceRepo.count());
+        assertEquals(0, jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM distance WHERE first_city > second_city", Long.class));
+        cityService.updateCache();
+        var graph = cityService.getGraph();
+        assertEquals(3, graph.edgeCount());
+        assertEquals(7L, graph.weight(graph.idOf("A"), graph.idOf("B")));
+        assertEquals(8L, graph.weight(graph.idOf("B"), graph.idOf("C")));
+        assertEquals(1L, graph.weight(graph.idOf("C"), graph.idOf("D")));
+        // the profile is moved to the kept row, and new writes find the normalized rows
+        assertEquals(3L, graph.profiles().distanceAt(graph.idOf("A"), graph.idOf("B"), 7 * 60));
+        cityService.addDistances(List.of(new DistanceDTO("D", "C", 2L)));
+        cityService.addProfiles(List.of(
+                new DistanceProfileDTO("D", "C", LocalTime.of(7, 0), LocalTime.of(8, 0), 4L)));
+        assertEquals(3, distanceRepo.count());
+        assertEquals(2L, cityService.getGraph().weight(graph.idOf("C"), graph.idOf("D")));
+    }
+
+    private void assertDeparture(List<String> expectedPath, long expectedDistance, LocalTime departure) {
+        var shortest = cityService.findShortestPath(new PathRequestDTO("A", "D", null, null, departure),
+                ShortestPathAlgorithm.DIJKSTRA).getPaths().get(0);
+        assertEquals(expectedPath, shortest.getPath());
+        assertEquals(expectedDistance, shortest.getDistance());
+        var best = cityService.findAllPaths(new PathRequestDTO("A", "D", 1, null, departure)).get(0);
+        assertEquals(shortest, best);
+    }
+
     @Test
     void findPathForData_UnknownCityException() {
         var inputData = getSmallInputData();